@@ -0,0 +1,55 @@
+package libsvm;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+//
+// DenseOps with explicit SIMD lanes
+//
+// lanes are accumulated separately and reduced at the end, so sums may
+// differ from the scalar loops in the last bits
+//
+final class SimdDenseOps extends DenseOps
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    double dot(double[] x, int xo, double[] y, int yo, int n)
+    {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        for (; k < bound; k += SPECIES.length())
+        {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, xo + k);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, yo + k);
+            acc = a.fma(b, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++)
+            sum += x[xo + k] * y[yo + k];
+        return sum;
+    }
+
+    @Override
+    double dist2(double[] x, int xo, double[] y, int yo, int n)
+    {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        for (; k < bound; k += SPECIES.length())
+        {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, x, xo + k)
+                    .sub(DoubleVector.fromArray(SPECIES, y, yo + k));
+            acc = d.fma(d, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++)
+        {
+            double d = x[xo + k] - y[yo + k];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,24 @@
+package libsvm;
+
+//
+// Java 17+ build of VectorSupport (META-INF/versions/17 in libsvm.jar)
+//
+// the SIMD loops are used only when the incubating vector API has been
+// added to the JVM, e.g. java --add-modules jdk.incubator.vector ...
+//
+final class VectorSupport
+{
+    static DenseOps dense_ops()
+    {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return null;
+        try
+        {
+            return new SimdDenseOps();
+        }
+        catch (LinkageError e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package libsvm;
+
+//
+// svm_csr_problem arrays; views only carry their own row map
+//
+final class CsrMatrix extends FeatureMatrix
+{
+    private final int[] row_ptr;
+    private final int[] index;
+    private final double[] value;
+    private final int[] rows; // view row -> CSR row
+
+    CsrMatrix(svm_csr_problem prob)
+    {
+        row_ptr = prob.row_ptr;
+        index = prob.index;
+        value = prob.value;
+        rows = new int[prob.l];
+        for (int i = 0; i < prob.l; i++)
+            rows[i] = i;
+    }
+
+    private CsrMatrix(CsrMatrix m, int[] rows)
+    {
+        row_ptr = m.row_ptr;
+        index = m.index;
+        value = m.value;
+        this.rows = rows;
+    }
+
+    @Override
+    int rows()
+    {
+        return rows.length;
+    }
+
+    @Override
+    double dot(int i, int j)
+    {
+        int r = rows[i], s = rows[j];
+        int p = row_ptr[r], p_end = row_ptr[r + 1];
+        int q = row_ptr[s], q_end = row_ptr[s + 1];
+        double sum = 0;
+        while (p < p_end && q < q_end)
+        {
+            if (index[p] == index[q])
+                sum += value[p++] * value[q++];
+            else
+            {
+                if (index[p] > index[q])
+                    ++q;
+                else
+                    ++p;
+            }
+        }
+        return sum;
+    }
+
+    // x dense with every index of row i in range; the nonzero products are
+    // added in the same order as the sparse merge
+    double dot(int i, double[] x)
+    {
+        int r = rows[i];
+        double sum = 0;
+        for (int p = row_ptr[r]; p < row_ptr[r + 1]; p++)
+            sum += value[p] * x[index[p]];
+        return sum;
+    }
+
+    @Override
+    int length(int i)
+    {
+        return row_ptr[rows[i] + 1] - row_ptr[rows[i]];
+    }
+
+    @Override
+    int index_at(int i, int k)
+    {
+        return index[row_ptr[rows[i]] + k];
+    }
+
+    @Override
+    double value_at(int i, int k)
+    {
+        return value[row_ptr[rows[i]] + k];
+    }
+
+    @Override
+    svm_node[] row(int i)
+    {
+        int r = rows[i];
+        int begin = row_ptr[r];
+        svm_node[] x = new svm_node[row_ptr[r + 1] - begin];
+        for (int k = 0; k < x.length; k++)
+        {
+            x[k] = new svm_node();
+            x[k].index = index[begin + k];
+            x[k].value = value[begin + k];
+        }
+        return x;
+    }
+
+    @Override
+    FeatureMatrix subset(int[] rows)
+    {
+        int[] sub = new int[rows.length];
+        for (int k = 0; k < rows.length; k++)
+            sub[k] = this.rows[rows[k]];
+        return new CsrMatrix(this, sub);
+    }
+
+    @Override
+    FeatureMatrix copy()
+    {
+        return new CsrMatrix(this, rows.clone());
+    }
+
+    @Override
+    void swap(int i, int j)
+    {
+        int tmp = rows[i];
+        rows[i] = rows[j];
+        rows[j] = tmp;
+    }
+}
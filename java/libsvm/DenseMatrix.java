@@ -0,0 +1,161 @@
+package libsvm;
+
+//
+// Row-major dense copy of mostly-dense data: feature k of row r is data[r*n+k]
+//
+// the scalar dense loops add the same nonzero products in the same index
+// order as the sparse merge, so kernel values do not depend on which storage
+// is used (see DenseOps for the SIMD variant); svm_node rows and precomputed
+// lookups are still served by the source
+//
+final class DenseMatrix extends FeatureMatrix
+{
+    // use dense storage when at least this fraction of l*(max index) is stored
+    static final double DENSITY_THRESHOLD = 0.5;
+
+    private static final DenseOps ops = DenseOps.get();
+
+    private final FeatureMatrix source;
+    private final double[] data;
+    private final int n;
+    private final int[] rows; // view row -> source row
+
+    private DenseMatrix(FeatureMatrix source, double[] data, int n, int[] rows)
+    {
+        this.source = source;
+        this.data = data;
+        this.n = n;
+        this.rows = rows;
+    }
+
+    // dense copy of x, or null if x is too sparse (or not indexable) to benefit
+    static DenseMatrix of(FeatureMatrix x)
+    {
+        int l = x.rows();
+        long nnz = 0;
+        int max_index = 0;
+        for (int i = 0; i < l; i++)
+        {
+            int len = x.length(i);
+            if (len == 0) continue;
+            if (x.index_at(i, 0) < 0) return null;
+            max_index = Math.max(max_index, x.index_at(i, len - 1));
+            nnz += len;
+        }
+
+        int n = max_index + 1;
+        if (max_index == 0 || nnz < DENSITY_THRESHOLD * l * max_index || (long) l * n > Integer.MAX_VALUE)
+            return null;
+
+        double[] data = new double[l * n];
+        int[] rows = new int[l];
+        for (int i = 0; i < l; i++)
+        {
+            int len = x.length(i);
+            for (int k = 0; k < len; k++)
+                data[i * n + x.index_at(i, k)] = x.value_at(i, k);
+            rows[i] = i;
+        }
+        return new DenseMatrix(x, data, n, rows);
+    }
+
+    // training data for the given kernel, densified when worthwhile
+    static FeatureMatrix select(FeatureMatrix x, int kernel_type)
+    {
+        if (kernel_type == svm_parameter.PRECOMPUTED)
+            return x;
+        DenseMatrix dense = of(x);
+        return dense != null ? dense : x;
+    }
+
+    // number of entries of a scattered vector
+    int columns()
+    {
+        return n;
+    }
+
+    // x scattered into v, a zeroed buffer of columns() entries, in any index
+    // order; the values at indices outside [0,n), which no row has, are
+    // left out, and the sum of their squares is returned for dist2
+    double scatter(svm_node[] x, double[] v)
+    {
+        double tail = 0;
+        for (svm_node node : x)
+            if (node.index >= 0 && node.index < n)
+                v[node.index] = node.value;
+            else
+                tail += node.value * node.value;
+        return tail;
+    }
+
+    @Override
+    int rows()
+    {
+        return rows.length;
+    }
+
+    @Override
+    double dot(int i, int j)
+    {
+        return ops.dot(data, rows[i] * n, data, rows[j] * n, n);
+    }
+
+    // x from scatter()
+    double dot(int i, double[] x)
+    {
+        return ops.dot(x, 0, data, rows[i] * n, n);
+    }
+
+    // |x - row i|^2 for x from scatter() and tail its result
+    double dist2(int i, double[] x, double tail)
+    {
+        return ops.dist2(x, 0, data, rows[i] * n, n) + tail;
+    }
+
+    @Override
+    int length(int i)
+    {
+        return source.length(rows[i]);
+    }
+
+    @Override
+    int index_at(int i, int k)
+    {
+        return source.index_at(rows[i], k);
+    }
+
+    @Override
+    double value_at(int i, int k)
+    {
+        return source.value_at(rows[i], k);
+    }
+
+    @Override
+    svm_node[] row(int i)
+    {
+        return source.row(rows[i]);
+    }
+
+    @Override
+    FeatureMatrix subset(int[] rows)
+    {
+        int[] sub = new int[rows.length];
+        for (int k = 0; k < rows.length; k++)
+            sub[k] = this.rows[rows[k]];
+        return new DenseMatrix(source, data, n, sub);
+    }
+
+    @Override
+    FeatureMatrix copy()
+    {
+        return new DenseMatrix(source, data, n, rows.clone());
+    }
+
+    @Override
+    void swap(int i, int j)
+    {
+        int tmp = rows[i];
+        rows[i] = rows[j];
+        rows[j] = tmp;
+    }
+}
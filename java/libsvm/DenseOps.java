@@ -0,0 +1,37 @@
+package libsvm;
+
+//
+// Loops over dense rows used by DenseMatrix
+//
+// this is the portable scalar version; in the multi-release libsvm.jar on
+// Java 17+ with jdk.incubator.vector present, VectorSupport supplies a SIMD one
+//
+class DenseOps
+{
+    static DenseOps get()
+    {
+        DenseOps ops = VectorSupport.dense_ops();
+        return (ops != null) ? ops : new DenseOps();
+    }
+
+    // sum of x[xo+k]*y[yo+k], k in [0,n)
+    double dot(double[] x, int xo, double[] y, int yo, int n)
+    {
+        double sum = 0;
+        for (int k = 0; k < n; k++)
+            sum += x[xo + k] * y[yo + k];
+        return sum;
+    }
+
+    // sum of (x[xo+k]-y[yo+k])^2, k in [0,n)
+    double dist2(double[] x, int xo, double[] y, int yo, int n)
+    {
+        double sum = 0;
+        for (int k = 0; k < n; k++)
+        {
+            double d = x[xo + k] - y[yo + k];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,30 @@
+package libsvm;
+
+//
+// Feature storage seen by the kernels
+//
+// rows are addressed by position; subset() and copy() give views which share
+// the underlying feature data, and swap() only reorders the view itself
+//
+abstract class FeatureMatrix
+{
+    abstract int rows();
+
+    abstract double dot(int i, int j);
+
+    // number of stored features of row i
+    abstract int length(int i);
+
+    // index and value of the k-th stored feature of row i
+    abstract int index_at(int i, int k);
+
+    abstract double value_at(int i, int k);
+
+    abstract svm_node[] row(int i);
+
+    abstract FeatureMatrix subset(int[] rows);
+
+    abstract FeatureMatrix copy();
+
+    abstract void swap(int i, int j);
+}
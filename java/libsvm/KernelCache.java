@@ -0,0 +1,73 @@
+package libsvm;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+//
+// Kernel values of one problem, shared by the solvers of its subproblems
+// (cross-validation folds, one-vs-one pairs, values of C)
+//
+// keys are the instances of the problem the cache was made for: column a
+// holds K(x_a, x_b) at b, or NaN if that value is not known yet. Values are
+// stored without locking, which is safe because every writer stores the same
+// float. Whole columns are dropped least recently used first to stay within
+// shared_cache_size. The limit is soft: a dropped column is still held by
+// the solvers using it until they are done with it. When not even one
+// column fits there are no columns at all, and the solvers compute every
+// value themselves
+//
+final class KernelCache
+{
+    private final int l;
+    private final long size; // in floats
+    private long used;
+    private final LinkedHashMap<Integer, float[]> columns = new LinkedHashMap<>(16, 0.75f, true);
+
+    // svm_parameter
+    private final int kernel_type;
+    private final int degree;
+    private final double gamma;
+    private final double coef0;
+
+    KernelCache(int l, svm_parameter param)
+    {
+        this.l = l;
+        size = (long) (param.shared_cache_size * (1 << 20)) / 4;
+        kernel_type = param.kernel_type;
+        degree = param.degree;
+        gamma = param.gamma;
+        coef0 = param.coef0;
+    }
+
+    // whether the values are those of param's kernel
+    boolean matches(svm_parameter param)
+    {
+        return param.kernel_type == kernel_type && param.degree == degree &&
+                param.gamma == gamma && param.coef0 == coef0;
+    }
+
+    // column a, or null if it does not fit; stays valid for the caller
+    // after it is dropped
+    synchronized float[] column(int a)
+    {
+        if (l > size)
+            return null;
+        float[] c = columns.get(a);
+        if (c == null)
+        {
+            Iterator<float[]> it = columns.values().iterator();
+            while (used + l > size && it.hasNext())
+            {
+                it.next();
+                it.remove();
+                used -= l;
+            }
+            c = new float[l];
+            Arrays.fill(c, Float.NaN);
+            columns.put(a, c);
+            used += l;
+        }
+        return c;
+    }
+}
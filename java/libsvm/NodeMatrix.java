@@ -0,0 +1,96 @@
+package libsvm;
+
+//
+// svm_node[][] as handed in through svm_problem, used without copying
+//
+final class NodeMatrix extends FeatureMatrix
+{
+    private final svm_node[][] x;
+
+    NodeMatrix(svm_node[][] x)
+    {
+        this.x = x;
+    }
+
+    @Override
+    int rows()
+    {
+        return x.length;
+    }
+
+    @Override
+    double dot(int i, int j)
+    {
+        return dot(x[i], x[j]);
+    }
+
+    // the sparse merge of Kernel.dot
+    private static double dot(svm_node[] x, svm_node[] y)
+    {
+        double sum = 0;
+        int xlen = x.length;
+        int ylen = y.length;
+        int i = 0;
+        int j = 0;
+        while (i < xlen && j < ylen)
+        {
+            if (x[i].index == y[j].index)
+                sum += x[i++].value * y[j++].value;
+            else
+            {
+                if (x[i].index > y[j].index)
+                    ++j;
+                else
+                    ++i;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    int length(int i)
+    {
+        return x[i].length;
+    }
+
+    @Override
+    int index_at(int i, int k)
+    {
+        return x[i][k].index;
+    }
+
+    @Override
+    double value_at(int i, int k)
+    {
+        return x[i][k].value;
+    }
+
+    @Override
+    svm_node[] row(int i)
+    {
+        return x[i];
+    }
+
+    @Override
+    FeatureMatrix subset(int[] rows)
+    {
+        svm_node[][] sub = new svm_node[rows.length][];
+        for (int k = 0; k < rows.length; k++)
+            sub[k] = x[rows[k]];
+        return new NodeMatrix(sub);
+    }
+
+    @Override
+    FeatureMatrix copy()
+    {
+        return new NodeMatrix(x.clone());
+    }
+
+    @Override
+    void swap(int i, int j)
+    {
+        svm_node[] tmp = x[i];
+        x[i] = x[j];
+        x[j] = tmp;
+    }
+}
@@ -0,0 +1,221 @@
+package libsvm;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//
+// Parallel loops and tasks under the policy set in svm_parameter
+//
+// pool is the ForkJoinPool to run on (the common pool if null), nr_thread
+// caps the number of chunks (1 keeps everything in the calling thread), and
+// loops with less than min_parallel_work units of work (kernel evaluations)
+// are not split at all; in element-wise loops (Loop) ELEMENTS_PER_WORK
+// elements make one unit
+//
+final class Parallel
+{
+    static final int DEFAULT_MIN_WORK = 1000;
+
+    // an element of a Loop is a few flops against the dot product of a
+    // kernel evaluation, so chunks of min_parallel_work * ELEMENTS_PER_WORK
+    // elements pay for handing them to another thread
+    static final int ELEMENTS_PER_WORK = 16;
+
+    interface Range
+    {
+        void run(int begin, int end);
+    }
+
+    interface Task
+    {
+        void run(int t);
+    }
+
+    interface Part
+    {
+        void run(int c, int begin, int end);
+    }
+
+    // body over [begin, end) in contiguous chunks, each item costing about
+    // cost units; returns when all chunks are done
+    static void range(svm_parameter param, int begin, int end, long cost, Range body)
+    {
+        int n = end - begin;
+        int nr_chunk = nr_chunk(param, n, cost);
+        if (nr_chunk <= 1)
+        {
+            if (n > 0)
+                body.run(begin, end);
+            return;
+        }
+        invoke(param, nr_chunk, c ->
+        {
+            body.run(begin + (int) ((long) n * c / nr_chunk), begin + (int) ((long) n * (c + 1) / nr_chunk));
+        });
+    }
+
+    // task.run(0), ..., task.run(n-1) on at most nr_worker threads; each
+    // worker takes the next task when it is done with the previous one
+    static void tasks(svm_parameter param, int n, int nr_worker, Task task)
+    {
+        if (nr_worker <= 1 || n <= 1)
+        {
+            for (int t = 0; t < n; t++)
+                task.run(t);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        invoke(param, Math.min(nr_worker, n), c ->
+        {
+            for (int t = next.getAndIncrement(); t < n; t = next.getAndIncrement())
+                task.run(t);
+        });
+    }
+
+    // chunk.run(0), ..., chunk.run(nr_chunk-1) on the pool, the first one in
+    // the invoking worker
+    private static void invoke(svm_parameter param, int nr_chunk, Task chunk)
+    {
+        RecursiveAction action = new RecursiveAction()
+        {
+            @Override
+            protected void compute()
+            {
+                ForkJoinTask<?>[] forked = new ForkJoinTask<?>[nr_chunk - 1];
+                for (int c = 1; c < nr_chunk; c++)
+                {
+                    int cc = c;
+                    forked[c - 1] = new RecursiveAction()
+                    {
+                        @Override
+                        protected void compute()
+                        {
+                            chunk.run(cc);
+                        }
+                    }.fork();
+                }
+                chunk.run(0);
+                for (ForkJoinTask<?> task : forked)
+                    task.join();
+            }
+        };
+
+        ForkJoinPool pool = pool(param);
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool)
+            action.invoke();
+        else
+            pool.invoke(action);
+    }
+
+    //
+    // body over [0, n) in contiguous chunks, run repeatedly: the chunk tasks
+    // are made once and reused, so that a run allocates nothing; a Part body
+    // is also told the number c of its chunk, from 0 to run()'s result - 1,
+    // in the order of the range
+    //
+    static final class Loop
+    {
+        private final ForkJoinPool pool;
+        private final Part body;
+        private final RecursiveAction[] chunk;
+        private final int[] begin, end; // of each chunk
+        private final long min_chunk; // in elements
+        private int nr_chunk;
+        private final RecursiveAction root;
+
+        Loop(svm_parameter param, Range body)
+        {
+            this(param, (c, begin, end) -> body.run(begin, end));
+        }
+
+        Loop(svm_parameter param, Part body)
+        {
+            pool = pool(param);
+            this.body = body;
+            chunk = new RecursiveAction[nr_thread(param)];
+            min_chunk = (long) min_work(param) * ELEMENTS_PER_WORK;
+            begin = new int[chunk.length];
+            end = new int[chunk.length];
+            for (int c = 0; c < chunk.length; c++)
+            {
+                int cc = c;
+                chunk[c] = new RecursiveAction()
+                {
+                    @Override
+                    protected void compute()
+                    {
+                        body.run(cc, begin[cc], end[cc]);
+                    }
+                };
+            }
+            root = new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    for (int c = 1; c < nr_chunk; c++)
+                        chunk[c].fork();
+                    chunk[0].invoke();
+                    for (int c = 1; c < nr_chunk; c++)
+                        chunk[c].join();
+                }
+            };
+        }
+
+        // the number of chunks used
+        int run(int n)
+        {
+            nr_chunk = (int) Math.min(chunk.length, n / min_chunk);
+            if (nr_chunk <= 1)
+            {
+                body.run(0, 0, n);
+                return 1;
+            }
+            for (int c = 0; c < nr_chunk; c++)
+            {
+                begin[c] = (int) ((long) n * c / nr_chunk);
+                end[c] = (int) ((long) n * (c + 1) / nr_chunk);
+                chunk[c].reinitialize();
+            }
+            root.reinitialize();
+            Thread t = Thread.currentThread();
+            if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == pool)
+                root.invoke();
+            else
+                pool.invoke(root);
+            return nr_chunk;
+        }
+    }
+
+    static ForkJoinPool pool(svm_parameter param)
+    {
+        return (param.pool != null) ? param.pool : ForkJoinPool.commonPool();
+    }
+
+    // most threads a loop may use
+    static int nr_thread(svm_parameter param)
+    {
+        if (param.nr_thread > 0)
+            return param.nr_thread;
+        if (param.pool != null)
+            return param.pool.getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    // least work of a chunk
+    static int min_work(svm_parameter param)
+    {
+        return (param.min_parallel_work > 0) ? param.min_parallel_work : DEFAULT_MIN_WORK;
+    }
+
+    // number of chunks range would use
+    static int nr_chunk(svm_parameter param, int n, long cost)
+    {
+        long work = (long) n * Math.max(cost, 1);
+        return (int) Math.min(Math.min(nr_thread(param), n), work / min_work(param));
+    }
+}
@@ -0,0 +1,15 @@
+package libsvm;
+
+//
+// Java 8 build: no vector API, DenseOps stays scalar
+//
+// java17/libsvm/VectorSupport.java replaces this class in the
+// multi-release libsvm.jar
+//
+final class VectorSupport
+{
+    static DenseOps dense_ops()
+    {
+        return null;
+    }
+}
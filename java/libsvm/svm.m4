@@ -6,6 +6,8 @@ changecom(`//',`')
 package libsvm;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
 import java.util.*;
 
 //
@@ -14,6 +16,19 @@ import java.util.*;
 // l is the number of total data items
 // size is the cache size limit in bytes
 //
+// off-heap caches, and caches of 16-bit values (HALF or BFLOAT16 precision),
+// keep the columns in a slab of buffers (direct ones off the heap), in slots
+// of l values; get_data then hands out a copy and put_data stores what the
+// caller filled
+//
+// policy decides which column to free: the least recently used (LRU) or,
+// with CLOCK, the first one the hand finds whose count of requests has run
+// down to zero; the hand lowers the counts it passes, and new columns are put
+// behind it
+//
+// a cache which can hold all l columns of l floats can be preloaded with all
+// of them; requests then leave the order of the columns alone
+//
 class Cache
 {
     private final int l;
@@ -23,13 +38,55 @@ class Cache
     {
         head_t prev, next; // a cicular list
         Qfloat[] data;
+        int slot; // slab: the slot holding the column
         int len; // data[0,len) is cached in this entry
+        int count; // CLOCK: requests, at most MAX_COUNT
+        long synced; // the first synced swaps of the log are applied to data
     }
 
+    private static final int MAX_COUNT = 3;
+
     private final head_t[] head;
     private head_t lru_head;
+    private final int policy;
+    private head_t hand; // CLOCK: the next entry to look at
+    private boolean full; // preloaded
+
+    // preloaded columns, in the order of the indices at preload: index i
+    // is now at perm[i], so that a swap costs O(1) and requests copy the
+    // column in the current order once any indices have been swapped
+    private Qfloat[][] matrix;
+    private int[] perm;
+    private boolean permuted;
+
+    // requests served from the cache, requests which had to be filled, and
+    // values filled
+    long nr_hit, nr_miss, nr_fill;
+
+    // swap k exchanged positions swap_i[k % n] < swap_j[k % n]; columns pick
+    // up the swaps they missed when next requested, so a swap costs O(1)
+    // however many columns are cached
+    private final int[] swap_i, swap_j;
+    private long nr_swap;
+
+    // slab storage, null for Qfloat[] columns on the heap: slot k is at
+    // (k % slots_per_buffer) * l in slab[k / slots_per_buffer], a FloatBuffer
+    // or for 16-bit values a ShortBuffer, and columns are handed out in the two
+    // buffers in turn
+    private final int precision;
+    private final Buffer[] slab;
+    private int slots_per_buffer;
+    private int[] free_slot;
+    private int nr_free_slot;
+    private Qfloat[][] buffer;
+    private int next_buffer;
 
     Cache(int l_, long size_)
+    {
+        this(l_, size_, false, svm_parameter.LRU, svm_parameter.SINGLE);
+    }
+
+    Cache(int l_, long size_, boolean off_heap, int policy_, int precision_)
     {
         l = l_;
         size = size_;
@@ -38,9 +95,38 @@ class Cache
             head[i] = new head_t();
         size /= SIZE_OF_QFLOAT;
         size -= l * (16 / SIZE_OF_QFLOAT); // sizeof(head_t) == 16
+        int n = Math.max(2 * l, 1024);
+        swap_i = new int[n];
+        swap_j = new int[n];
+        size -= (long) n * (8 / SIZE_OF_QFLOAT);
         size = Math.max(size, 2 * (long) l); // cache must be large enough for two columns
         lru_head = new head_t();
         lru_head.next = lru_head.prev = lru_head;
+        policy = policy_;
+        hand = lru_head;
+        precision = precision_;
+
+        if (!off_heap && precision == svm_parameter.SINGLE)
+        {
+            slab = null;
+            return;
+        }
+        int width = (precision == svm_parameter.SINGLE) ? SIZE_OF_QFLOAT : 2;
+        int nr_slot = (int) Math.min(Math.max(size_ / (width * (long) Math.max(l, 1)), 2), l);
+        slots_per_buffer = Math.max(Integer.MAX_VALUE / (width * Math.max(l, 1)), 1);
+        slab = new Buffer[(nr_slot + slots_per_buffer - 1) / slots_per_buffer];
+        for (int k = 0; k < slab.length; k++)
+        {
+            int slots = Math.min(nr_slot - k * slots_per_buffer, slots_per_buffer);
+            ByteBuffer b = off_heap ? ByteBuffer.allocateDirect(slots * l * width) : ByteBuffer.allocate(slots * l * width);
+            b.order(ByteOrder.nativeOrder());
+            slab[k] = (precision == svm_parameter.SINGLE) ? b.asFloatBuffer() : b.asShortBuffer();
+        }
+        free_slot = new int[nr_slot];
+        for (int k = 0; k < nr_slot; k++)
+            free_slot[k] = nr_slot - 1 - k;
+        nr_free_slot = nr_slot;
+        buffer = new Qfloat[2][l];
     }
 
     private void lru_delete(head_t h)
@@ -59,69 +145,401 @@ class Cache
         h.next.prev = h;
     }
 
+    private void free(head_t h)
+    {
+        if (slab == null)
+            size += h.len;
+        else
+            free_slot[nr_free_slot++] = h.slot;
+        h.data = null;
+        h.len = 0;
+    }
+
+    // h is requested again
+    private void touch(head_t h)
+    {
+        if (policy == svm_parameter.LRU)
+        {
+            lru_delete(h);
+            lru_insert(h);
+        }
+        else if (h.count < MAX_COUNT)
+            h.count++;
+    }
+
+    // h has just got a column
+    private void add(head_t h)
+    {
+        if (policy == svm_parameter.LRU)
+            lru_insert(h);
+        else
+        {
+            // insert before the hand
+            h.count = 0;
+            h.next = hand;
+            h.prev = hand.prev;
+            h.prev.next = h;
+            h.next.prev = h;
+        }
+    }
+
+    private void drop(head_t h)
+    {
+        if (hand == h) hand = h.next;
+        lru_delete(h);
+        free(h);
+    }
+
+    // free the column of some entry other than keep
+    private void evict(head_t keep)
+    {
+        if (policy == svm_parameter.LRU)
+        {
+            head_t old = lru_head.next;
+            drop(old != keep ? old : old.next);
+            return;
+        }
+        for (;;)
+        {
+            head_t h = hand;
+            hand = h.next;
+            if (h == lru_head || h == keep)
+                continue;
+            if (h.count == 0)
+            {
+                drop(h);
+                return;
+            }
+            h.count--;
+        }
+    }
+
+    // apply the swaps h has missed since its last request; false if h has
+    // to be dropped because it missed more than the log holds or a swap
+    // crosses its length
+    private boolean sync(head_t h)
+    {
+        int n = swap_i.length;
+        if (nr_swap - h.synced > n)
+            return false;
+        Qfloat[] data = h.data;
+        FloatBuffer fb = null;
+        ShortBuffer sb = null;
+        int offset = 0;
+        if (slab != null)
+        {
+            Buffer b = slab[h.slot / slots_per_buffer];
+            if (b instanceof FloatBuffer)
+                fb = (FloatBuffer) b;
+            else
+                sb = (ShortBuffer) b;
+            offset = h.slot % slots_per_buffer * l;
+        }
+        for (long k = h.synced; k < nr_swap; k++)
+        {
+            int i = swap_i[(int) (k % n)], j = swap_j[(int) (k % n)];
+            if (h.len > j)
+            {
+                if (data != null)
+                {
+                    Qfloat tmp = data[i];
+                    data[i] = data[j];
+                    data[j] = tmp;
+                }
+                else if (fb != null)
+                {
+                    float tmp = fb.get(offset + i);
+                    fb.put(offset + i, fb.get(offset + j));
+                    fb.put(offset + j, tmp);
+                }
+                else
+                {
+                    short tmp = sb.get(offset + i);
+                    sb.put(offset + i, sb.get(offset + j));
+                    sb.put(offset + j, tmp);
+                }
+            }
+            else if (h.len > i)
+            {
+                // give up
+                return false;
+            }
+        }
+        h.synced = nr_swap;
+        return true;
+    }
+
     // request data [0,len)
     // return some position p where [p,len) need to be filled
     // (p >= len if nothing needs to be filled)
     // java: simulate pointer using single-element array
     int get_data(int index, Qfloat[][] data, int len)
     {
+        if (full)
+        {
+            nr_hit++;
+            data[0] = column(index, len);
+            return len;
+        }
         head_t h = head[index];
-        if(h.len > 0) lru_delete(h);
+        if(h.len > 0 && !sync(h))
+            drop(h);
+        h.synced = nr_swap;
+        if(h.len > 0) touch(h);
         int more = len - h.len;
 
         if(more > 0)
         {
-            // free old space
-            while(size < more)
+            nr_miss++;
+            nr_fill += more;
+            if(slab == null)
             {
-                head_t old = lru_head.next;
-                lru_delete(old);
-                size += old.len;
-                old.data = null;
-                old.len = 0;
+                // free old space
+                while(size < more)
+                    evict(h);
+
+                // allocate new space
+                Qfloat[] new_data = new Qfloat[len];
+                if(h.data != null) System.arraycopy(h.data,0,new_data,0,h.len);
+                h.data = new_data;
+                size -= more;
             }
-
-            // allocate new space
-            Qfloat[] new_data = new Qfloat[len];
-            if(h.data != null) System.arraycopy(h.data,0,new_data,0,h.len);
-            h.data = new_data;
-            size -= more;
+            else if(h.len == 0)
+            {
+                // take a free slot; a slot holds the whole column
+                while(nr_free_slot == 0)
+                    evict(h);
+                h.slot = free_slot[--nr_free_slot];
+            }
+            if(h.len == 0) add(h);
             swap(int,h.len,len);
         }
+        else
+            nr_hit++;
 
-        lru_insert(h);
-        data[0] = h.data;
+        if(slab == null)
+            data[0] = h.data;
+        else
+        {
+            Qfloat[] buf = buffer[next_buffer];
+            next_buffer = 1 - next_buffer;
+            read(h, buf, len);
+            data[0] = buf;
+        }
         return len;
     }
 
-    void swap_index(int i, int j)
+    // allocate every column in full, to be filled by the caller in the
+    // current order of the indices; null if they do not fit on the heap
+    Qfloat[][] preload()
     {
-        if(i==j) return;
+        if (slab != null || size < (long) l * l)
+            return null;
+        matrix = new Qfloat[l][l];
+        perm = new int[l];
+        for (int i = 0; i < l; i++)
+            perm[i] = i;
+        buffer = new Qfloat[2][l];
+        size -= (long) l * l;
+        full = true;
+        return matrix;
+    }
 
-        if(head[i].len > 0) lru_delete(head[i]);
-        if(head[j].len > 0) lru_delete(head[j]);
-        swap(Qfloat[],head[i].data,head[j].data);
-        swap(int,head[i].len,head[j].len);
-        if(head[i].len > 0) lru_insert(head[i]);
-        if(head[j].len > 0) lru_insert(head[j]);
+    // [0,len) of preloaded column index in the current order
+    private Qfloat[] column(int index, int len)
+    {
+        Qfloat[] c = matrix[perm[index]];
+        if (!permuted)
+            return c;
+        Qfloat[] buf = buffer[next_buffer];
+        next_buffer = 1 - next_buffer;
+        for (int k = 0; k < len; k++)
+            buf[k] = c[perm[k]];
+        return buf;
+    }
 
-        if(i>j) swap(int,i,j);
-        for(head_t h = lru_head.next; h!=lru_head; h=h.next)
+    // data[begin,end) of column index was filled after get_data; 16-bit
+    // values are also rounded in data, so that the caller sees what later
+    // requests will
+    void put_data(int index, Qfloat[] data, int begin, int end)
+    {
+        if(slab == null) return;
+        head_t h = head[index];
+        Buffer b = slab[h.slot / slots_per_buffer];
+        int offset = h.slot % slots_per_buffer * l;
+        if (precision == svm_parameter.SINGLE)
         {
-            if(h.len > i)
+            FloatBuffer fb = (FloatBuffer) b;
+            for (int k = begin; k < end; k++)
+                fb.put(offset + k, data[k]);
+        }
+        else if (precision == svm_parameter.HALF)
+        {
+            ShortBuffer sb = (ShortBuffer) b;
+            for (int k = begin; k < end; k++)
             {
-                if(h.len > j)
-                    swap(Qfloat,h.data[i],h.data[j]);
-                else
-                {
-                    // give up
-                    lru_delete(h);
-                    size += h.len;
-                    h.data = null;
-                    h.len = 0;
-                }
+                short v = float_to_half(data[k]);
+                sb.put(offset + k, v);
+                data[k] = half_to_float(v);
             }
         }
+        else
+        {
+            ShortBuffer sb = (ShortBuffer) b;
+            for (int k = begin; k < end; k++)
+            {
+                short v = float_to_bfloat16(data[k]);
+                sb.put(offset + k, v);
+                data[k] = bfloat16_to_float(v);
+            }
+        }
+    }
+
+    // v as put_data leaves it
+    Qfloat round(Qfloat v)
+    {
+        if (precision == svm_parameter.HALF)
+            return half_to_float(float_to_half(v));
+        if (precision == svm_parameter.BFLOAT16)
+            return bfloat16_to_float(float_to_bfloat16(v));
+        return v;
+    }
+
+    // whether data [0,len) of column index is cached, after applying the
+    // swaps it missed; counts as a request. Its values can then be read by
+    // value until the next get_data or swap_index
+    boolean has_data(int index, int len)
+    {
+        if (full)
+        {
+            nr_hit++;
+            return true;
+        }
+        head_t h = head[index];
+        if (h.len > 0 && !sync(h))
+            drop(h);
+        h.synced = nr_swap;
+        if (h.len < len)
+            return false;
+        touch(h);
+        nr_hit++;
+        return true;
+    }
+
+    // value j of column index after has_data; only reads, so that several
+    // threads may call this at once
+    Qfloat value(int index, int j)
+    {
+        if (full)
+            return matrix[perm[index]][perm[j]];
+        head_t h = head[index];
+        if (slab == null)
+            return h.data[j];
+        Buffer b = slab[h.slot / slots_per_buffer];
+        int k = h.slot % slots_per_buffer * l + j;
+        if (precision == svm_parameter.SINGLE)
+            return ((FloatBuffer) b).get(k);
+        if (precision == svm_parameter.HALF)
+            return half_to_float(((ShortBuffer) b).get(k));
+        return bfloat16_to_float(((ShortBuffer) b).get(k));
+    }
+
+    // [0,n) of the column of h into buf
+    private void read(head_t h, Qfloat[] buf, int n)
+    {
+        Buffer b = slab[h.slot / slots_per_buffer];
+        int offset = h.slot % slots_per_buffer * l;
+        if (precision == svm_parameter.SINGLE)
+        {
+            FloatBuffer fb = (FloatBuffer) b;
+            for (int k = 0; k < n; k++)
+                buf[k] = fb.get(offset + k);
+        }
+        else if (precision == svm_parameter.HALF)
+        {
+            ShortBuffer sb = (ShortBuffer) b;
+            for (int k = 0; k < n; k++)
+                buf[k] = half_to_float(sb.get(offset + k));
+        }
+        else
+        {
+            ShortBuffer sb = (ShortBuffer) b;
+            for (int k = 0; k < n; k++)
+                buf[k] = bfloat16_to_float(sb.get(offset + k));
+        }
+    }
+
+    void swap_index(int i, int j)
+    {
+        if(i==j) return;
+
+        if (full)
+        {
+            swap(int,perm[i],perm[j]);
+            permuted = true;
+            return;
+        }
+
+        swap(head_t,head[i],head[j]);
+
+        int n = swap_i.length;
+        swap_i[(int)(nr_swap % n)] = Math.min(i,j);
+        swap_j[(int)(nr_swap % n)] = Math.max(i,j);
+        nr_swap++;
+    }
+
+    // IEEE 754 binary16, rounded to nearest even; values beyond 65504 become
+    // infinite
+    static short float_to_half(float v)
+    {
+        int f = Float.floatToRawIntBits(v);
+        int sign = (f >>> 16) & 0x8000;
+        int e = ((f >>> 23) & 0xff) - 127 + 15;
+        int m = f & 0x7fffff;
+        if (e >= 31)
+            return (short) (sign | 0x7c00);
+        int shift = 13;
+        if (e <= 0)
+        {
+            // subnormal
+            if (e < -10) return (short) sign;
+            m |= 0x800000;
+            shift = 14 - e;
+            e = 0;
+        }
+        int h = (e << 10) | (m >> shift);
+        int rest = m & ((1 << shift) - 1), half = 1 << (shift - 1);
+        if (rest > half || (rest == half && (h & 1) != 0))
+            h++; // may carry into the exponent, which is still right
+        return (short) (sign | h);
+    }
+
+    static float half_to_float(short v)
+    {
+        int sign = (v & 0x8000) << 16;
+        int e = (v >>> 10) & 0x1f;
+        int m = v & 0x3ff;
+        if (e == 0)
+        {
+            float f = m * 0x1p-24f;
+            return (sign != 0) ? -f : f;
+        }
+        if (e == 31)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (m << 13));
+        return Float.intBitsToFloat(sign | ((e + 127 - 15) << 23) | (m << 13));
+    }
+
+    // the upper half of a float, rounded to nearest even
+    static short float_to_bfloat16(float v)
+    {
+        int f = Float.floatToRawIntBits(v);
+        f += 0x7fff + ((f >>> 16) & 1);
+        return (short) (f >>> 16);
+    }
+
+    static float bfloat16_to_float(short v)
+    {
+        return Float.intBitsToFloat(v << 16);
     }
 }
 
@@ -139,12 +557,35 @@ abstract class QMatrix
     abstract double[] get_QD();
 
     abstract void swap_index(int i, int j);
+
+    // Q[i][index[k]] into buf[k] for k in [0,n): the values get_Q gives,
+    // computed without the cache, so that several threads may call this at
+    // once as long as no indices are swapped meanwhile
+    abstract void compute_Q(int i, int[] index, int n, Qfloat[] buf);
+
+    // whether get_Q(i, len) would take the column from the cache; only from
+    // the solver's thread. read_Q then gives its values as compute_Q does,
+    // until the next get_Q or swap_index
+    abstract boolean has_Q(int i, int len);
+
+    abstract void read_Q(int i, int[] index, int n, Qfloat[] buf);
+
+    // the kernel cache, if any
+    Cache get_cache()
+    {
+        return null;
+    }
+
+    // h combined with a hash of what the values are computed from
+    abstract long hash(long h);
 };
 
 abstract class Kernel extends QMatrix
 {
-    private svm_node[][] x;
+    private final FeatureMatrix x;
     private final double[] x_square;
+    private final KernelCache shared; // null if not shared with other solvers
+    private final int[] key; // instance of shared for each row
 
     // svm_parameter
     private final int kernel_type;
@@ -158,8 +599,9 @@ abstract class Kernel extends QMatrix
 
     void swap_index(int i, int j)
     {
-        swap(svm_node[],x[i],x[j]);
+        x.swap(i,j);
         if(x_square != null) swap(double,x_square[i],x_square[j]);
+        if(key != null) swap(int,key[i],key[j]);
     }
 
     double kernel_function(int i, int j)
@@ -167,39 +609,148 @@ abstract class Kernel extends QMatrix
         switch (kernel_type)
         {
             case svm_parameter.LINEAR:
-                return dot(x[i], x[j]);
+                return x.dot(i, j);
             case svm_parameter.POLY:
-                return Math.pow(gamma * dot(x[i], x[j]) + coef0, degree);
+                return Math.pow(gamma * x.dot(i, j) + coef0, degree);
             case svm_parameter.RBF:
-                return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot(x[i], x[j])));
+                return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * x.dot(i, j)));
             case svm_parameter.SIGMOID:
-                return Math.tanh(gamma * dot(x[i], x[j]) + coef0);
+                return Math.tanh(gamma * x.dot(i, j) + coef0);
             case svm_parameter.PRECOMPUTED:
-                return x[i][(int) (x[j][0].value)].value;
+                return x.value_at(i, (int) (x.value_at(j, 0)));
             default:
                 return 0; // java
         }
     }
 
-    Kernel(int l, svm_node[][] x_, svm_parameter param)
+    long hash(long h)
+    {
+        h = (h ^ kernel_type) * 0x100000001b3L;
+        h = (h ^ degree) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(gamma)) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(coef0)) * 0x100000001b3L;
+        for (int i = 0; i < x.rows(); i++)
+        {
+            int n = x.length(i);
+            h = (h ^ n) * 0x100000001b3L;
+            for (int k = 0; k < n; k++)
+            {
+                h = (h ^ x.index_at(i, k)) * 0x100000001b3L;
+                h = (h ^ Double.doubleToLongBits(x.value_at(i, k))) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    // column of the shared cache for row i, null if there is none
+    float[] shared_column(int i)
+    {
+        return (shared != null) ? shared.column(key[i]) : null;
+    }
+
+    // kernel_function(i, j), looked up in and stored to k_i = shared_column(i)
+    double kernel_function(int i, int j, float[] k_i)
+    {
+        if (k_i == null)
+            return kernel_function(i, j);
+        float v = k_i[key[j]];
+        if (v != v) // NaN: not computed yet
+        {
+            v = (float) kernel_function(i, j);
+            k_i[key[j]] = v;
+        }
+        return v;
+    }
+
+    // Q[i][j] = Q[j][i] = y[i]*y[j]*K(i,j) for all i, j (y null for 1), in
+    // parallel over square blocks of the lower triangle; precomputed kernels
+    // are looked up both ways, as they need not be symmetric
+    void fill(svm_parameter param, byte[] y, Qfloat[][] Q)
+    {
+        final int B = 64;
+        int l = Q.length;
+        int nr_block = (l + B - 1) / B;
+        boolean symmetric = kernel_type != svm_parameter.PRECOMPUTED;
+        Parallel.range(param, 0, nr_block * (nr_block + 1) / 2, B * B, (begin, end) ->
+        {
+            // block pair begin is (bi, bj), bj <= bi
+            int bi = (int) ((Math.sqrt(8.0 * begin + 1) - 1) / 2);
+            while (bi * (bi + 1) / 2 > begin) bi--;
+            while ((bi + 1) * (bi + 2) / 2 <= begin) bi++;
+            int bj = begin - bi * (bi + 1) / 2;
+            for (int t = begin; t < end; t++)
+            {
+                for (int i = bi * B; i < Math.min(bi * B + B, l); i++)
+                {
+                    float[] K_i = shared_column(i);
+                    int j_end = (bi == bj) ? i + 1 : bj * B + B;
+                    for (int j = bj * B; j < j_end; j++)
+                    {
+                        double v = kernel_function(i, j, K_i);
+                        Q[i][j] = (Qfloat) ((y != null) ? y[i] * y[j] * v : v);
+                        if (symmetric)
+                            Q[j][i] = Q[i][j];
+                        else
+                        {
+                            v = kernel_function(j, i, shared_column(j));
+                            Q[j][i] = (Qfloat) ((y != null) ? y[j] * y[i] * v : v);
+                        }
+                    }
+                }
+                if (++bj > bi)
+                {
+                    bi++;
+                    bj = 0;
+                }
+            }
+        });
+    }
+
+    Kernel(TrainingSet prob, svm_parameter param)
     {
         this.kernel_type = param.kernel_type;
         this.degree = param.degree;
         this.gamma = param.gamma;
         this.coef0 = param.coef0;
 
-        x = (svm_node[][]) x_.clone();
+        int l = prob.l;
+        x = prob.x.copy();
+        if (prob.kcache != null && prob.kcache.matches(param))
+        {
+            shared = prob.kcache;
+            key = prob.key.clone();
+        }
+        else
+        {
+            shared = null;
+            key = null;
+        }
 
         if (kernel_type == svm_parameter.RBF)
         {
             x_square = new double[l];
             for (int i = 0; i < l; i++)
-                x_square[i] = dot(x[i], x[i]);
+                x_square[i] = x.dot(i, i);
         }
         else
             x_square = null;
     }
 
+    // the rbf distance |x|^2 + |y|^2 - 2 x.y is off by about
+    // 2^-50 (|x|^2 + |y|^2) after rounding, so the kernel value computed from
+    // it has a relative error of about 1e-12 while gamma (|x|^2 + |y|^2)
+    // stays below this
+    static final double RBF_NORM_LIMIT = 1024;
+
+    // exp(-gamma*|x-y|^2) from the squared norms and the dot product, or
+    // NaN if the norms are too large for it to be accurate
+    static double rbf_from_norms(double gamma, double x_square, double y_square, double dot)
+    {
+        if (gamma * (x_square + y_square) > RBF_NORM_LIMIT)
+            return Double.NaN;
+        return Math.exp(-gamma * Math.max(x_square + y_square - 2 * dot, 0));
+    }
+
     static double dot(svm_node[] x, svm_node[] y)
     {
         double sum = 0;
@@ -279,6 +830,25 @@ abstract class Kernel extends QMatrix
                 return 0; // java
         }
     }
+
+    // k_function for x scattered by sv.scatter(...), with tail its result,
+    // against row i of sv
+    static double k_function(double[] x, double tail, DenseMatrix sv, int i, svm_parameter param)
+    {
+        switch (param.kernel_type)
+        {
+            case svm_parameter.LINEAR:
+                return sv.dot(i, x);
+            case svm_parameter.POLY:
+                return Math.pow(param.gamma * sv.dot(i, x) + param.coef0, param.degree);
+            case svm_parameter.RBF:
+                return Math.exp(-param.gamma * sv.dist2(i, x, tail));
+            case svm_parameter.SIGMOID:
+                return Math.tanh(param.gamma * sv.dot(i, x) + param.coef0);
+            default:
+                return 0; // precomputed SVs are never densified
+        }
+    }
 }
 
 // An SMO algorithm in Fan et al., JMLR 6(2005), p. 1889--1918
@@ -318,6 +888,35 @@ class Solver
     double[] G_bar; // gradient, if we treat free variables as 0
     int l;
     boolean unshrink; // XXX
+    svm_parameter param;
+    long nr_computed; // kernel values computed outside the cache
+
+    // param.checkpoint_dir: the state between two iterations is saved to
+    // checkpoint every checkpoint_interval seconds and when the solver stops
+    // short of the optimum, and a solver which finds the file of its problem
+    // resumes from it; the file is deleted once the problem is solved
+    File checkpoint;
+    static final int CHECKPOINT_MAGIC = 0x6c737663; // "lsvc"
+    static final int CHECKPOINT_VERSION = 1;
+    static final double DEFAULT_CHECKPOINT_INTERVAL = 300;
+
+    // G += c_i*Q_i + c_j*Q_j over the active set and G_bar += c_i*Q_i, in
+    // parallel for large problems, with the arguments in the upd_ fields
+    Parallel.Loop update_G, update_G_bar;
+    Qfloat[] upd_Q_i, upd_Q_j;
+    double upd_c_i, upd_c_j;
+
+    // working set selection in chunks: chunk c of the loop for i leaves the
+    // largest violation and its index in part_Gmax[2*c] and part_Gmax_idx[2*c]
+    // (Solver_NU: for y = +1, and for y = -1 at 2*c+1); that for j, given the
+    // chosen i in the sel_ fields, leaves the largest -y_j*grad(f)_j in
+    // part_Gmax2 the same way and the best j in part_Gmin_idx[c]
+    Parallel.Loop select_loop_i, select_loop_j;
+    double[] part_Gmax, part_Gmax2, part_obj_diff_min;
+    int[] part_Gmax_idx, part_Gmin_idx;
+    final double[] sel_Gmax = new double[2];
+    final int[] sel_i = new int[2];
+    final Qfloat[][] sel_Q_i = new Qfloat[2][];
 
     static final double INF = java.lang.Double.POSITIVE_INFINITY;
 
@@ -360,6 +959,7 @@ class Solver
         double upper_bound_p;
         double upper_bound_n;
         double r; // for Solver_NU
+        double violation; // largest violation of the optimality conditions, < eps unless stopped early
     }
 
     void swap_index(int i, int j)
@@ -374,6 +974,15 @@ class Solver
         swap(double,    G_bar[i],G_bar[j]);
     }
 
+    // undo the reordering of Q by shrinking, so that Q can be used for
+    // another Solve on the same problem
+    void restore_order()
+    {
+        for (int i = 0; i < l; i++)
+            while (active_set[i] != i)
+                swap_index(i, active_set[i]);
+    }
+
     void reconstruct_gradient()
     {
         // reconstruct inactive elements of G from G_bar and free variables
@@ -393,6 +1002,12 @@ class Solver
         if (2 * nr_free < active_size)
             svm.info("\nWARNING: using -h 0 may be faster\n");
 
+        if (Parallel.nr_chunk(param, l - active_size, nr_free) > 1)
+        {
+            reconstruct_gradient(nr_free);
+            return;
+        }
+
         if (nr_free * l > 2 * active_size * (l - active_size))
         {
             for (i = active_size; i < l; i++)
@@ -416,8 +1031,74 @@ class Solver
         }
     }
 
+    // reconstruct_gradient in parallel: the columns the kernel cache holds
+    // are read from it and the others computed by Q.compute_Q, without
+    // storing them; each G[j] still adds its terms in the same order
+    private void reconstruct_gradient(int nr_free)
+    {
+        int[] free = new int[nr_free];
+        for (int j = 0, k = 0; j < active_size; j++)
+            if (is_free(j))
+                free[k++] = j;
+
+        // the cache is looked up here, in the solver's thread
+        if (nr_free * l > 2 * active_size * (l - active_size))
+        {
+            boolean[] cached = new boolean[l - active_size];
+            for (int i = active_size; i < l; i++)
+            {
+                cached[i - active_size] = Q.has_Q(i, active_size);
+                if (!cached[i - active_size])
+                    nr_computed += nr_free;
+            }
+            Parallel.range(param, active_size, l, nr_free, (begin, end) ->
+            {
+                Qfloat[] Q_i = new Qfloat[nr_free];
+                for (int i = begin; i < end; i++)
+                {
+                    if (cached[i - active_size])
+                        Q.read_Q(i, free, nr_free, Q_i);
+                    else
+                        Q.compute_Q(i, free, nr_free, Q_i);
+                    for (int k = 0; k < nr_free; k++)
+                        G[i] += alpha[free[k]] * Q_i[k];
+                }
+            });
+        }
+        else
+        {
+            boolean[] cached = new boolean[nr_free];
+            for (int k = 0; k < nr_free; k++)
+            {
+                cached[k] = Q.has_Q(free[k], l);
+                if (!cached[k])
+                    nr_computed += l - active_size;
+            }
+            Parallel.range(param, active_size, l, nr_free, (begin, end) ->
+            {
+                int n = end - begin;
+                int[] index = new int[n];
+                for (int k = 0; k < n; k++)
+                    index[k] = begin + k;
+                Qfloat[] Q_i = new Qfloat[n];
+                for (int t = 0; t < nr_free; t++)
+                {
+                    int i = free[t];
+                    if (cached[t])
+                        Q.read_Q(i, index, n, Q_i);
+                    else
+                        Q.compute_Q(i, index, n, Q_i);
+                    double alpha_i = alpha[i];
+                    for (int k = 0; k < n; k++)
+                        G[begin + k] += alpha_i * Q_i[k];
+                }
+            });
+        }
+    }
+
     void Solve(int l, QMatrix Q, double[] p_, byte[] y_,
-            double[] alpha_, double Cp, double Cn, double eps, SolutionInfo si, int shrinking)
+            double[] alpha_, double Cp, double Cn, double eps, SolutionInfo si, int shrinking,
+            svm_parameter param, long deadline)
     {
         this.l = l;
         this.Q = Q;
@@ -429,55 +1110,129 @@ class Solver
         this.Cn = Cn;
         this.eps = eps;
         this.unshrink = false;
-
-        // initialize alpha_status
+        this.param = param;
+        update_G = new Parallel.Loop(param, (begin, end) ->
         {
-            alpha_status = new byte[l];
-            for (int i = 0; i < l; i++)
-                update_alpha_status(i);
-        }
-
-        // initialize active set (for shrinking)
+            double[] G = this.G;
+            Qfloat[] Q_i = upd_Q_i, Q_j = upd_Q_j;
+            double delta_alpha_i = upd_c_i, delta_alpha_j = upd_c_j;
+            for (int k = begin; k < end; k++)
+            {
+                G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j;
+            }
+        });
+        update_G_bar = new Parallel.Loop(param, (begin, end) ->
         {
-            active_set = new int[l];
-            for (int i = 0; i < l; i++)
-                active_set[i] = i;
-            active_size = l;
+            double[] G_bar = this.G_bar;
+            Qfloat[] Q_i = upd_Q_i;
+            double C_i = upd_c_i;
+            for (int k = begin; k < end; k++)
+                G_bar[k] += C_i * Q_i[k];
+        });
+        int nr_part = Parallel.nr_thread(param);
+        part_Gmax = new double[2 * nr_part];
+        part_Gmax_idx = new int[2 * nr_part];
+        part_Gmax2 = new double[2 * nr_part];
+        part_Gmin_idx = new int[nr_part];
+        part_obj_diff_min = new double[nr_part];
+        select_loop_i = new Parallel.Loop(param, this::select_i);
+        select_loop_j = new Parallel.Loop(param, this::select_j);
+
+        // kernel evaluations from here on count against max_kernel_eval,
+        // including those for the initial gradient
+        Cache cache = Q.get_cache();
+        long nr_fill = (cache != null) ? cache.nr_fill : 0;
+        nr_computed = 0;
+
+        // resume from a checkpoint of this problem, or start from alpha
+
+        int[] resumed = null; // iter and counter of the saved state
+        checkpoint = null;
+        if (param.checkpoint_dir != null)
+        {
+            checkpoint = new File(param.checkpoint_dir, "solver-" + Long.toHexString(problem_key(p_, y_, alpha_, shrinking)));
+            resumed = load_checkpoint(p_, y_);
+            if (resumed != null)
+                svm.info("resuming from " + checkpoint + " at #iter = " + resumed[0] + "\n");
         }
 
-        // initialize gradient
+        if (resumed == null)
         {
-            G = new double[l];
-            G_bar = new double[l];
-            int i;
-            for (i = 0; i < l; i++)
+            // initialize alpha_status
             {
-                G[i] = p[i];
-                G_bar[i] = 0;
+                alpha_status = new byte[l];
+                for (int i = 0; i < l; i++)
+                    update_alpha_status(i);
             }
-            for (i = 0; i < l; i++)
-                if (!is_lower_bound(i))
+
+            // initialize active set (for shrinking)
+            {
+                active_set = new int[l];
+                for (int i = 0; i < l; i++)
+                    active_set[i] = i;
+                active_size = l;
+            }
+
+            // initialize gradient
+            {
+                G = new double[l];
+                G_bar = new double[l];
+                int i;
+                for (i = 0; i < l; i++)
                 {
-                    Qfloat[] Q_i = Q.get_Q(i, l);
-                    double alpha_i = alpha[i];
-                    int j;
-                    for (j = 0; j < l; j++)
-                        G[j] += alpha_i * Q_i[j];
-                    if (is_upper_bound(i))
-                        for (j = 0; j < l; j++)
-                        G_bar[j] += get_C(i) * Q_i[j];
+                    G[i] = p[i];
+                    G_bar[i] = 0;
                 }
+                for (i = 0; i < l; i++)
+                    if (!is_lower_bound(i))
+                    {
+                        Qfloat[] Q_i = Q.get_Q(i, l);
+                        double alpha_i = alpha[i];
+                        int j;
+                        for (j = 0; j < l; j++)
+                            G[j] += alpha_i * Q_i[j];
+                        if (is_upper_bound(i))
+                            for (j = 0; j < l; j++)
+                            G_bar[j] += get_C(i) * Q_i[j];
+                    }
+            }
         }
 
         // optimization step
 
         int iter = 0;
         int max_iter = Math.max(10000000, l > Integer.MAX_VALUE / 100 ? Integer.MAX_VALUE : 100 * l);
+        if (param.max_iter > 0)
+            max_iter = param.max_iter;
         int counter = Math.min(l, 1000) + 1;
         int[] working_set = new int[2];
+        boolean over_budget = false;
+        if (resumed != null)
+        {
+            iter = resumed[0];
+            counter = resumed[1];
+        }
+        long interval = (long) (((param.checkpoint_interval > 0) ? param.checkpoint_interval : DEFAULT_CHECKPOINT_INTERVAL) * 1e9);
+        long next_checkpoint = System.nanoTime() + interval;
 
         while (iter < max_iter)
         {
+            if (checkpoint != null && System.nanoTime() - next_checkpoint >= 0)
+            {
+                save_checkpoint(iter, counter);
+                next_checkpoint = System.nanoTime() + interval;
+            }
+
+            // stop with the current solution if time or kernel evaluations run out
+
+            if ((deadline != 0 && System.nanoTime() - deadline >= 0) ||
+                    (param.max_kernel_eval > 0 &&
+                            ((cache != null) ? cache.nr_fill - nr_fill : 0) + nr_computed >= param.max_kernel_eval))
+            {
+                over_budget = true;
+                break;
+            }
+
             // show progress and do shrinking
 
             if (--counter == 0)
@@ -608,10 +1363,11 @@ class Solver
             double delta_alpha_i = alpha[i] - old_alpha_i;
             double delta_alpha_j = alpha[j] - old_alpha_j;
 
-            for (int k = 0; k < active_size; k++)
-            {
-                G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j;
-            }
+            upd_Q_i = Q_i;
+            upd_Q_j = Q_j;
+            upd_c_i = delta_alpha_i;
+            upd_c_j = delta_alpha_j;
+            update_G.run(active_size);
 
             // update alpha_status and G_bar
 
@@ -620,33 +1376,24 @@ class Solver
                 boolean uj = is_upper_bound(j);
                 update_alpha_status(i);
                 update_alpha_status(j);
-                int k;
                 if (ui != is_upper_bound(i))
                 {
-                    Q_i = Q.get_Q(i, l);
-                    if (ui)
-                        for (k = 0; k < l; k++)
-                            G_bar[k] -= C_i * Q_i[k];
-                    else
-                        for (k = 0; k < l; k++)
-                            G_bar[k] += C_i * Q_i[k];
+                    upd_Q_i = Q.get_Q(i, l);
+                    upd_c_i = ui ? -C_i : C_i;
+                    update_G_bar.run(l);
                 }
 
                 if (uj != is_upper_bound(j))
                 {
-                    Q_j = Q.get_Q(j, l);
-                    if (uj)
-                        for (k = 0; k < l; k++)
-                            G_bar[k] -= C_j * Q_j[k];
-                    else
-                        for (k = 0; k < l; k++)
-                            G_bar[k] += C_j * Q_j[k];
+                    upd_Q_i = Q.get_Q(j, l);
+                    upd_c_i = uj ? -C_j : C_j;
+                    update_G_bar.run(l);
                 }
             }
 
         }
 
-        if (iter >= max_iter)
+        if (iter >= max_iter || over_budget)
         {
             if (active_size < l)
             {
@@ -655,9 +1402,22 @@ class Solver
                 active_size = l;
                 svm.info("*");
             }
-            System.err.print("\nWARNING: reaching max number of iterations\n");
         }
 
+        if (checkpoint != null)
+        {
+            if (iter >= max_iter || over_budget)
+                save_checkpoint(iter, counter);
+            else if (checkpoint.exists() && !checkpoint.delete())
+                System.err.print("\nWARNING: cannot delete checkpoint " + checkpoint + "\n");
+        }
+
+        si.violation = max_violation();
+        if (over_budget)
+            System.err.print("\nWARNING: training budget used up, max violation = " + si.violation + "\n");
+        else if (iter >= max_iter)
+            System.err.print("\nWARNING: reaching max number of iterations\n");
+
         // calculate rho
 
         si.rho = calculate_rho();
@@ -682,6 +1442,8 @@ class Solver
         si.upper_bound_n = Cn;
 
         svm.info("\noptimization finished, #iter = " + iter + "\n");
+        if (cache != null)
+            svm.info("#cache hits = " + cache.nr_hit + ", #misses = " + cache.nr_miss + ", #values filled = " + cache.nr_fill + "\n");
     }
 
     // return 1 if already optimal, return 0 otherwise
@@ -692,6 +1454,10 @@ class Solver
         // j: mimimizes the decrease of obj value
         // (if quadratic coefficeint <= 0, replace it with tau)
         // -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
+        //
+        // both loops run in chunks for large active sets (see select_i and
+        // select_j); the chunks are merged in order, so that as in a single
+        // loop the last of equal values wins
 
         double Gmax = -INF;
         double Gmax2 = -INF;
@@ -699,7 +1465,49 @@ class Solver
         int Gmin_idx = -1;
         double obj_diff_min = INF;
 
-        for (int t = 0; t < active_size; t++)
+        int nr_part = select_loop_i.run(active_size);
+        for (int c = 0; c < nr_part; c++)
+            if (part_Gmax_idx[2 * c] != -1 && part_Gmax[2 * c] >= Gmax)
+            {
+                Gmax = part_Gmax[2 * c];
+                Gmax_idx = part_Gmax_idx[2 * c];
+            }
+
+        int i = Gmax_idx;
+        Qfloat[] Q_i = null;
+        if (i != -1) // null Q_i not accessed: Gmax=-INF if i=-1
+            Q_i = Q.get_Q(i, active_size);
+
+        sel_Gmax[0] = Gmax;
+        sel_i[0] = i;
+        sel_Q_i[0] = Q_i;
+        nr_part = select_loop_j.run(active_size);
+        for (int c = 0; c < nr_part; c++)
+        {
+            if (part_Gmax2[2 * c] >= Gmax2)
+                Gmax2 = part_Gmax2[2 * c];
+            if (part_Gmin_idx[c] != -1 && part_obj_diff_min[c] <= obj_diff_min)
+            {
+                Gmin_idx = part_Gmin_idx[c];
+                obj_diff_min = part_obj_diff_min[c];
+            }
+        }
+
+        if (Gmax + Gmax2 < eps || Gmin_idx == -1)
+            return 1;
+
+        working_set[0] = Gmax_idx;
+        working_set[1] = Gmin_idx;
+        return 0;
+    }
+
+    // the loop for i of select_working_set over [begin,end), as chunk c
+    void select_i(int c, int begin, int end)
+    {
+        double Gmax = -INF;
+        int Gmax_idx = -1;
+
+        for (int t = begin; t < end; t++)
             if (y[t] == +1)
             {
                 if (!is_upper_bound(t))
@@ -719,12 +1527,21 @@ class Solver
                     }
             }
 
-        int i = Gmax_idx;
-        Qfloat[] Q_i = null;
-        if (i != -1) // null Q_i not accessed: Gmax=-INF if i=-1
-            Q_i = Q.get_Q(i, active_size);
+        part_Gmax[2 * c] = Gmax;
+        part_Gmax_idx[2 * c] = Gmax_idx;
+    }
+
+    // the loop for j of select_working_set over [begin,end), as chunk c
+    void select_j(int c, int begin, int end)
+    {
+        double Gmax = sel_Gmax[0];
+        int i = sel_i[0];
+        Qfloat[] Q_i = sel_Q_i[0];
+        double Gmax2 = -INF;
+        int Gmin_idx = -1;
+        double obj_diff_min = INF;
 
-        for (int j = 0; j < active_size; j++)
+        for (int j = begin; j < end; j++)
         {
             if (y[j] == +1)
             {
@@ -776,12 +1593,180 @@ class Solver
             }
         }
 
-        if (Gmax + Gmax2 < eps || Gmin_idx == -1)
-            return 1;
+        part_Gmax2[2 * c] = Gmax2;
+        part_Gmin_idx[c] = Gmin_idx;
+        part_obj_diff_min[c] = obj_diff_min;
+    }
 
-        working_set[0] = Gmax_idx;
-        working_set[1] = Gmin_idx;
-        return 0;
+    // hash of what Solve is given (for Q, the kernel parameters and the
+    // data), naming the checkpoint file of the problem
+    private long problem_key(double[] p_, byte[] y_, double[] alpha_, int shrinking)
+    {
+        long h = getClass().getName().hashCode();
+        h = (h ^ l) * 0x100000001b3L;
+        h = (h ^ shrinking) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(Cp)) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(Cn)) * 0x100000001b3L;
+        h = (h ^ Double.doubleToLongBits(eps)) * 0x100000001b3L;
+        for (int i = 0; i < l; i++)
+        {
+            h = (h ^ y_[i]) * 0x100000001b3L;
+            h = (h ^ Double.doubleToLongBits(p_[i])) * 0x100000001b3L;
+            h = (h ^ Double.doubleToLongBits(alpha_[i])) * 0x100000001b3L;
+        }
+        return Q.hash(h);
+    }
+
+    // write the state to a new file and move it over checkpoint, so that
+    // the file is always complete; failures only cost the checkpoint
+    private void save_checkpoint(int iter, int counter)
+    {
+        File tmp = null;
+        try
+        {
+            tmp = File.createTempFile(checkpoint.getName(), ".tmp", checkpoint.getParentFile());
+            FileOutputStream file = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            try
+            {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeInt(l);
+                out.writeInt(active_size);
+                out.writeInt(iter);
+                out.writeInt(counter);
+                out.writeBoolean(unshrink);
+                for (int i = 0; i < l; i++)
+                {
+                    out.writeInt(active_set[i]);
+                    out.writeDouble(alpha[i]);
+                    out.writeDouble(G[i]);
+                    out.writeDouble(G_bar[i]);
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            if (tmp != null)
+                tmp.delete();
+            System.err.print("\nWARNING: cannot save checkpoint " + checkpoint + ": " + e + "\n");
+        }
+    }
+
+    // the state saved in checkpoint, with Q brought into its order; returns
+    // {iter, counter}, or null (and nothing changed) if there is no usable file
+    private int[] load_checkpoint(double[] p_, byte[] y_)
+    {
+        if (!checkpoint.exists())
+            return null;
+        int new_active_size, iter, counter;
+        boolean new_unshrink;
+        int[] new_active_set = new int[l];
+        double[] new_alpha = new double[l];
+        double[] new_G = new double[l];
+        double[] new_G_bar = new double[l];
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+            try
+            {
+                if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION || in.readInt() != l)
+                    throw new IOException("not a checkpoint of this problem");
+                new_active_size = in.readInt();
+                iter = in.readInt();
+                counter = in.readInt();
+                new_unshrink = in.readBoolean();
+                boolean[] seen = new boolean[l];
+                for (int i = 0; i < l; i++)
+                {
+                    int k = in.readInt();
+                    if (k < 0 || k >= l || seen[k])
+                        throw new IOException("bad active set");
+                    seen[k] = true;
+                    new_active_set[i] = k;
+                    new_alpha[i] = in.readDouble();
+                    new_G[i] = in.readDouble();
+                    new_G_bar[i] = in.readDouble();
+                }
+                if (new_active_size < 0 || new_active_size > l || iter < 0 || counter < 1)
+                    throw new IOException("bad state");
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.print("\nWARNING: ignoring checkpoint " + checkpoint + ": " + e + "\n");
+            return null;
+        }
+
+        // Q is in the original order: swap it into that of the saved state
+        int[] at = new int[l]; // original index -> position in Q
+        int[] index = new int[l]; // position in Q -> original index
+        for (int i = 0; i < l; i++)
+            at[i] = index[i] = i;
+        for (int i = 0; i < l; i++)
+        {
+            int j = at[new_active_set[i]];
+            if (j != i)
+            {
+                Q.swap_index(i, j);
+                at[index[i]] = j;
+                at[index[j]] = i;
+                swap(int, index[i], index[j]);
+            }
+        }
+
+        active_set = new_active_set;
+        active_size = new_active_size;
+        unshrink = new_unshrink;
+        alpha = new_alpha;
+        G = new_G;
+        G_bar = new_G_bar;
+        alpha_status = new byte[l];
+        for (int i = 0; i < l; i++)
+        {
+            y[i] = y_[active_set[i]];
+            p[i] = p_[active_set[i]];
+            update_alpha_status(i);
+        }
+        return new int[] { iter, counter };
+    }
+
+    // max { -y_i * grad(f)_i | i in I_up(\alpha) } + max { y_i * grad(f)_i | i in I_low(\alpha) }
+    // over the active set, or 0 if that is negative
+    double max_violation()
+    {
+        double Gmax1 = -INF;
+        double Gmax2 = -INF;
+
+        for (int i = 0; i < active_size; i++)
+        {
+            if (y[i] == +1)
+            {
+                if (!is_upper_bound(i))
+                    Gmax1 = Math.max(Gmax1, -G[i]);
+                if (!is_lower_bound(i))
+                    Gmax2 = Math.max(Gmax2, G[i]);
+            }
+            else
+            {
+                if (!is_upper_bound(i))
+                    Gmax2 = Math.max(Gmax2, -G[i]);
+                if (!is_lower_bound(i))
+                    Gmax1 = Math.max(Gmax1, G[i]);
+            }
+        }
+        return Math.max(Gmax1 + Gmax2, 0);
     }
 
     private boolean be_shrunk(int i, double Gmax1, double Gmax2)
@@ -915,10 +1900,10 @@ final class Solver_NU extends Solver
 
     void Solve(int l, QMatrix Q, double[] p, byte[] y,
             double[] alpha, double Cp, double Cn, double eps,
-            SolutionInfo si, int shrinking)
+            SolutionInfo si, int shrinking, svm_parameter param, long deadline)
     {
         this.si = si;
-        super.Solve(l, Q, p, y, alpha, Cp, Cn, eps, si, shrinking);
+        super.Solve(l, Q, p, y, alpha, Cp, Cn, eps, si, shrinking, param, deadline);
     }
 
     // return 1 if already optimal, return 0 otherwise
@@ -929,6 +1914,8 @@ final class Solver_NU extends Solver
         // j: minimizes the decrease of obj value
         // (if quadratic coefficeint <= 0, replace it with tau)
         // -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
+        //
+        // as in Solver, the loops run in chunks merged in order
 
         double Gmaxp = -INF;
         double Gmaxp2 = -INF;
@@ -941,7 +1928,71 @@ final class Solver_NU extends Solver
         int Gmin_idx = -1;
         double obj_diff_min = INF;
 
-        for (int t = 0; t < active_size; t++)
+        int nr_part = select_loop_i.run(active_size);
+        for (int c = 0; c < nr_part; c++)
+        {
+            if (part_Gmax_idx[2 * c] != -1 && part_Gmax[2 * c] >= Gmaxp)
+            {
+                Gmaxp = part_Gmax[2 * c];
+                Gmaxp_idx = part_Gmax_idx[2 * c];
+            }
+            if (part_Gmax_idx[2 * c + 1] != -1 && part_Gmax[2 * c + 1] >= Gmaxn)
+            {
+                Gmaxn = part_Gmax[2 * c + 1];
+                Gmaxn_idx = part_Gmax_idx[2 * c + 1];
+            }
+        }
+
+        int ip = Gmaxp_idx;
+        int in = Gmaxn_idx;
+        Qfloat[] Q_ip = null;
+        Qfloat[] Q_in = null;
+        if (ip != -1) // null Q_ip not accessed: Gmaxp=-INF if ip=-1
+            Q_ip = Q.get_Q(ip, active_size);
+        if (in != -1)
+            Q_in = Q.get_Q(in, active_size);
+
+        sel_Gmax[0] = Gmaxp;
+        sel_Gmax[1] = Gmaxn;
+        sel_i[0] = ip;
+        sel_i[1] = in;
+        sel_Q_i[0] = Q_ip;
+        sel_Q_i[1] = Q_in;
+        nr_part = select_loop_j.run(active_size);
+        for (int c = 0; c < nr_part; c++)
+        {
+            if (part_Gmax2[2 * c] >= Gmaxp2)
+                Gmaxp2 = part_Gmax2[2 * c];
+            if (part_Gmax2[2 * c + 1] >= Gmaxn2)
+                Gmaxn2 = part_Gmax2[2 * c + 1];
+            if (part_Gmin_idx[c] != -1 && part_obj_diff_min[c] <= obj_diff_min)
+            {
+                Gmin_idx = part_Gmin_idx[c];
+                obj_diff_min = part_obj_diff_min[c];
+            }
+        }
+
+        if (Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps || Gmin_idx == -1)
+            return 1;
+
+        if (y[Gmin_idx] == +1)
+            working_set[0] = Gmaxp_idx;
+        else
+            working_set[0] = Gmaxn_idx;
+        working_set[1] = Gmin_idx;
+
+        return 0;
+    }
+
+    void select_i(int c, int begin, int end)
+    {
+        double Gmaxp = -INF;
+        int Gmaxp_idx = -1;
+
+        double Gmaxn = -INF;
+        int Gmaxn_idx = -1;
+
+        for (int t = begin; t < end; t++)
             if (y[t] == +1)
             {
                 if (!is_upper_bound(t))
@@ -961,16 +2012,26 @@ final class Solver_NU extends Solver
                     }
             }
 
-        int ip = Gmaxp_idx;
-        int in = Gmaxn_idx;
-        Qfloat[] Q_ip = null;
-        Qfloat[] Q_in = null;
-        if (ip != -1) // null Q_ip not accessed: Gmaxp=-INF if ip=-1
-            Q_ip = Q.get_Q(ip, active_size);
-        if (in != -1)
-            Q_in = Q.get_Q(in, active_size);
+        part_Gmax[2 * c] = Gmaxp;
+        part_Gmax_idx[2 * c] = Gmaxp_idx;
+        part_Gmax[2 * c + 1] = Gmaxn;
+        part_Gmax_idx[2 * c + 1] = Gmaxn_idx;
+    }
 
-        for (int j = 0; j < active_size; j++)
+    void select_j(int c, int begin, int end)
+    {
+        double Gmaxp = sel_Gmax[0];
+        double Gmaxn = sel_Gmax[1];
+        int ip = sel_i[0];
+        int in = sel_i[1];
+        Qfloat[] Q_ip = sel_Q_i[0];
+        Qfloat[] Q_in = sel_Q_i[1];
+        double Gmaxp2 = -INF;
+        double Gmaxn2 = -INF;
+        int Gmin_idx = -1;
+        double obj_diff_min = INF;
+
+        for (int j = begin; j < end; j++)
         {
             if (y[j] == +1)
             {
@@ -1022,16 +2083,38 @@ final class Solver_NU extends Solver
             }
         }
 
-        if (Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps || Gmin_idx == -1)
-            return 1;
+        part_Gmax2[2 * c] = Gmaxp2;
+        part_Gmax2[2 * c + 1] = Gmaxn2;
+        part_Gmin_idx[c] = Gmin_idx;
+        part_obj_diff_min[c] = obj_diff_min;
+    }
 
-        if (y[Gmin_idx] == +1)
-            working_set[0] = Gmaxp_idx;
-        else
-            working_set[0] = Gmaxn_idx;
-        working_set[1] = Gmin_idx;
+    double max_violation()
+    {
+        // the larger of the violations among y_i = +1 and among y_i = -1
+        double Gmax1 = -INF;
+        double Gmax2 = -INF;
+        double Gmax3 = -INF;
+        double Gmax4 = -INF;
 
-        return 0;
+        for (int i = 0; i < active_size; i++)
+        {
+            if (!is_upper_bound(i))
+            {
+                if (y[i] == +1)
+                    Gmax1 = Math.max(Gmax1, -G[i]);
+                else
+                    Gmax4 = Math.max(Gmax4, -G[i]);
+            }
+            if (!is_lower_bound(i))
+            {
+                if (y[i] == +1)
+                    Gmax2 = Math.max(Gmax2, G[i]);
+                else
+                    Gmax3 = Math.max(Gmax3, G[i]);
+            }
+        }
+        return Math.max(Math.max(Gmax1 + Gmax2, Gmax3 + Gmax4), 0);
     }
 
     private boolean be_shrunk(int i, double Gmax1, double Gmax2, double Gmax3, double Gmax4)
@@ -1157,23 +2240,121 @@ final class Solver_NU extends Solver
     }
 }
 
+//
+// Training data handed to the solvers: labels plus a view of the features,
+// so that svm_problem and svm_csr_problem go through the same code
+//
+final class TrainingSet
+{
+    final int l;
+    final double[] y;
+    final FeatureMatrix x;
+    final KernelCache kcache; // kernel values shared with related problems, or null
+    final int[] key; // instance of kcache for each row
+    final double cache_size; // of each solver in MB, 0 for param.cache_size
+    final long deadline; // System.nanoTime() at which max_time runs out, 0 for none
+
+    // the problem handed to a training call, which starts the clock of
+    // param.max_time for the whole call
+    TrainingSet(int l, double[] y, FeatureMatrix x, svm_parameter param)
+    {
+        this(l, y, x, null, null, 0, start_clock(param));
+    }
+
+    private TrainingSet(int l, double[] y, FeatureMatrix x, KernelCache kcache, int[] key, double cache_size, long deadline)
+    {
+        this.l = l;
+        this.y = y;
+        this.x = x;
+        this.kcache = kcache;
+        this.key = key;
+        this.cache_size = cache_size;
+        this.deadline = deadline;
+    }
+
+    private static long start_clock(svm_parameter param)
+    {
+        if (param.max_time <= 0)
+            return 0;
+        long deadline = System.nanoTime() + (long) (param.max_time * 1e9);
+        return (deadline != 0) ? deadline : 1;
+    }
+
+    TrainingSet(svm_problem prob, svm_parameter param)
+    {
+        this(prob.l, prob.y, DenseMatrix.select(new NodeMatrix(prob.x), param.kernel_type), param);
+    }
+
+    TrainingSet(svm_csr_problem prob, svm_parameter param)
+    {
+        this(prob.l, prob.y, DenseMatrix.select(new CsrMatrix(prob), param.kernel_type), param);
+    }
+
+    // rows[0], rows[1], ... with labels y, sharing the kernel cache
+    TrainingSet subset(int[] rows, double[] y)
+    {
+        int[] sub_key = null;
+        if (kcache != null)
+        {
+            sub_key = new int[rows.length];
+            for (int k = 0; k < rows.length; k++)
+                sub_key[k] = key[rows[k]];
+        }
+        return new TrainingSet(rows.length, y, x.subset(rows), kcache, sub_key, cache_size, deadline);
+    }
+
+    // this problem with a new kernel cache of param.shared_cache_size for
+    // the solvers of its subproblems, unless it has one or the size is 0
+    TrainingSet shared(svm_parameter param)
+    {
+        if (kcache != null || param.shared_cache_size <= 0 || param.kernel_type == svm_parameter.PRECOMPUTED)
+            return this;
+        int[] key = new int[l];
+        for (int i = 0; i < l; i++)
+            key[i] = i;
+        return new TrainingSet(l, y, x, new KernelCache(l, param), key, cache_size, deadline);
+    }
+
+    // this problem for solvers run by nr_worker concurrent workers. The
+    // first level of workers gives each solver cache_size / nr_thread, as
+    // no more solvers than threads run at once however deeply the workers
+    // nest, and the levels below keep that size
+    TrainingSet concurrent(svm_parameter param, int nr_worker)
+    {
+        if (nr_worker <= 1 || cache_size > 0)
+            return this;
+        return new TrainingSet(l, y, x, kcache, key, param.cache_size / Parallel.nr_thread(param), deadline);
+    }
+
+    // kernel cache size of a solver in bytes
+    long cache_bytes(svm_parameter param)
+    {
+        return (long) (((cache_size > 0) ? cache_size : param.cache_size) * (1 << 20));
+    }
+}
+
 //
 // Q matrices for various formulations
 //
 class SVC_Q extends Kernel
 {
+    private final svm_parameter param;
     private final byte[] y;
     private final Cache cache;
     private final double[] QD;
 
-    SVC_Q(svm_problem prob, svm_parameter param, byte[] y_)
+    SVC_Q(TrainingSet prob, svm_parameter param, byte[] y_)
     {
-        super(prob.l, prob.x, param);
+        super(prob, param);
+        this.param = param;
         y = (byte[]) y_.clone();
-        cache = new Cache(prob.l, (long) (param.cache_size * (1 << 20)));
+        cache = new Cache(prob.l, prob.cache_bytes(param), param.cache_off_heap != 0, param.cache_policy, param.cache_precision);
         QD = new double[prob.l];
         for (int i = 0; i < prob.l; i++)
             QD[i] = kernel_function(i, i);
+        Qfloat[][] Q = cache.preload();
+        if (Q != null)
+            fill(param, y, Q);
     }
 
     Qfloat[] get_Q(int i, int len)
@@ -1182,19 +2363,49 @@ class SVC_Q extends Kernel
         int start;
         if ((start = cache.get_data(i, data, len)) < len)
         {
-            IntStream.range(start, len).parallel().forEach(p_j ->
+            Qfloat[] Qi = data[0];
+            float[] K_i = shared_column(i);
+            Parallel.range(param, start, len, 1, (begin, end) ->
             {
-                data[0][p_j] = (Qfloat) (y[i] * y[p_j] * kernel_function(i, p_j));
+                for (int j = begin; j < end; j++)
+                    Qi[j] = (Qfloat) (y[i] * y[j] * kernel_function(i, j, K_i));
             });
+            cache.put_data(i, Qi, start, len);
         }
         return data[0];
     }
 
+    void compute_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        float[] K_i = shared_column(i);
+        for (int k = 0; k < n; k++)
+        {
+            int j = index[k];
+            buf[k] = cache.round((Qfloat) (y[i] * y[j] * kernel_function(i, j, K_i)));
+        }
+    }
+
+    boolean has_Q(int i, int len)
+    {
+        return cache.has_data(i, len);
+    }
+
+    void read_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        for (int k = 0; k < n; k++)
+            buf[k] = cache.value(i, index[k]);
+    }
+
     double[] get_QD()
     {
         return QD;
     }
 
+    Cache get_cache()
+    {
+        return cache;
+    }
+
     void swap_index(int i, int j)
     {
         cache.swap_index(i,j);
@@ -1209,13 +2420,16 @@ class ONE_CLASS_Q extends Kernel
     private final Cache cache;
     private final double[] QD;
 
-    ONE_CLASS_Q(svm_problem prob, svm_parameter param)
+    ONE_CLASS_Q(TrainingSet prob, svm_parameter param)
     {
-        super(prob.l, prob.x, param);
-        cache = new Cache(prob.l, (long) (param.cache_size * (1 << 20)));
+        super(prob, param);
+        cache = new Cache(prob.l, prob.cache_bytes(param), param.cache_off_heap != 0, param.cache_policy, param.cache_precision);
         QD = new double[prob.l];
         for (int i = 0; i < prob.l; i++)
             QD[i] = kernel_function(i, i);
+        Qfloat[][] Q = cache.preload();
+        if (Q != null)
+            fill(param, null, Q);
     }
 
     Qfloat[] get_Q(int i, int len)
@@ -1224,17 +2438,42 @@ class ONE_CLASS_Q extends Kernel
         int start, j;
         if ((start = cache.get_data(i, data, len)) < len)
         {
+            float[] K_i = shared_column(i);
             for (j = start; j < len; j++)
-                data[0][j] = (Qfloat) kernel_function(i, j);
+                data[0][j] = (Qfloat) kernel_function(i, j, K_i);
+            cache.put_data(i, data[0], start, len);
         }
         return data[0];
     }
 
+    void compute_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        float[] K_i = shared_column(i);
+        for (int k = 0; k < n; k++)
+            buf[k] = cache.round((Qfloat) kernel_function(i, index[k], K_i));
+    }
+
+    boolean has_Q(int i, int len)
+    {
+        return cache.has_data(i, len);
+    }
+
+    void read_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        for (int k = 0; k < n; k++)
+            buf[k] = cache.value(i, index[k]);
+    }
+
     double[] get_QD()
     {
         return QD;
     }
 
+    Cache get_cache()
+    {
+        return cache;
+    }
+
     void swap_index(int i, int j)
     {
         cache.swap_index(i,j);
@@ -1253,11 +2492,11 @@ class SVR_Q extends Kernel
     private Qfloat[][] buffer;
     private final double[] QD;
 
-    SVR_Q(svm_problem prob, svm_parameter param)
+    SVR_Q(TrainingSet prob, svm_parameter param)
     {
-        super(prob.l, prob.x, param);
+        super(prob, param);
         l = prob.l;
-        cache = new Cache(l, (long) (param.cache_size * (1 << 20)));
+        cache = new Cache(l, prob.cache_bytes(param), param.cache_off_heap != 0, param.cache_policy, param.cache_precision);
         QD = new double[2 * l];
         sign = new byte[2 * l];
         index = new int[2 * l];
@@ -1272,6 +2511,9 @@ class SVR_Q extends Kernel
         }
         buffer = new Qfloat[2][2 * l];
         next_buffer = 0;
+        Qfloat[][] Q = cache.preload();
+        if (Q != null)
+            fill(param, null, Q);
     }
 
     void swap_index(int i, int j)
@@ -1287,8 +2529,10 @@ class SVR_Q extends Kernel
         int j, real_i = index[i];
         if (cache.get_data(real_i, data, l) < l)
         {
+            float[] K_i = shared_column(real_i);
             for (j = 0; j < l; j++)
-                data[0][j] = (Qfloat) kernel_function(real_i, j);
+                data[0][j] = (Qfloat) kernel_function(real_i, j, K_i);
+            cache.put_data(real_i, data[0], 0, l);
         }
 
         // reorder and copy
@@ -1300,10 +2544,43 @@ class SVR_Q extends Kernel
         return buf;
     }
 
+    void compute_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        int real_i = this.index[i];
+        float[] K_i = shared_column(real_i);
+        byte si = sign[i];
+        for (int k = 0; k < n; k++)
+        {
+            int j = index[k];
+            buf[k] = (Qfloat) si * sign[j] * cache.round((Qfloat) kernel_function(real_i, this.index[j], K_i));
+        }
+    }
+
+    boolean has_Q(int i, int len)
+    {
+        return cache.has_data(index[i], l);
+    }
+
+    void read_Q(int i, int[] index, int n, Qfloat[] buf)
+    {
+        int real_i = this.index[i];
+        byte si = sign[i];
+        for (int k = 0; k < n; k++)
+        {
+            int j = index[k];
+            buf[k] = (Qfloat) si * sign[j] * cache.value(real_i, this.index[j]);
+        }
+    }
+
     double[] get_QD()
     {
         return QD;
     }
+
+    Cache get_cache()
+    {
+        return cache;
+    }
 }
 
 public class svm
@@ -1318,21 +2595,69 @@ public class svm
     {
         public void print(String s)
         {
-            System.out.print(s);
-            System.out.flush();
+            System.out.print(s);
+            System.out.flush();
+        }
+    };
+
+    private static svm_print_interface svm_print_string = svm_print_stdout;
+
+    static void info(String s)
+    {
+        svm_print_string.print(s);
+    }
+
+    //
+    // told about each model of a regularization path as soon as it is done
+    //
+    interface path_model_interface
+    {
+        void done(int k, svm_model model);
+    }
+
+    //
+    // state carried from one solve to the next on a regularization path
+    //
+    static class warm_start
+    {
+        QMatrix Q; // with its kernel cache
+        double[] alpha; // solution in the solver's variables
+        double Cp, Cn; // bounds alpha was solved for
+
+        // start alpha from the previous solution. If the bounds grow it stays
+        // feasible and is kept as it is, unless scale is set because the
+        // equality constraints grow with the bounds (nu-SVR); otherwise it is
+        // scaled with the bounds. The clipping only guards against rounding
+        void init(double[] alpha, byte[] y, double Cp, double Cn, boolean scale)
+        {
+            if (this.alpha == null)
+                return;
+            double rp = Cp / this.Cp, rn = Cn / this.Cn;
+            if (!scale)
+            {
+                rp = Math.min(rp, 1);
+                rn = Math.min(rn, 1);
+            }
+            for (int i = 0; i < alpha.length; i++)
+                if (y[i] > 0)
+                    alpha[i] = Math.min(this.alpha[i] * rp, Cp);
+                else
+                    alpha[i] = Math.min(this.alpha[i] * rn, Cn);
+        }
+
+        void save(Solver s, QMatrix Q, double[] alpha, double Cp, double Cn)
+        {
+            s.restore_order();
+            this.Q = Q;
+            this.alpha = alpha.clone();
+            this.Cp = Cp;
+            this.Cn = Cn;
         }
     };
 
-    private static svm_print_interface svm_print_string = svm_print_stdout;
-
-    static void info(String s)
-    {
-        svm_print_string.print(s);
-    }
-
-    private static void solve_c_svc(svm_problem prob, svm_parameter param,
+    private static void solve_c_svc(TrainingSet prob, svm_parameter param,
             double[] alpha, Solver.SolutionInfo si,
-            double Cp, double Cn)
+            double Cp, double Cn, warm_start warm)
     {
         int l = prob.l;
         double[] minus_ones = new double[l];
@@ -1350,10 +2675,16 @@ public class svm
                 y[i] = -1;
         }
 
+        QMatrix Q = (warm != null && warm.Q != null) ? warm.Q : new SVC_Q(prob, param, y);
+        if (warm != null)
+            warm.init(alpha, y, Cp, Cn, false);
+
         Solver s = new Solver();
         s.Solve(
-            l, new SVC_Q(prob, param, y), minus_ones, y,
-            alpha, Cp, Cn, param.eps, si, param.shrinking);
+            l, Q, minus_ones, y,
+            alpha, Cp, Cn, param.eps, si, param.shrinking, param, prob.deadline);
+        if (warm != null)
+            warm.save(s, Q, alpha, Cp, Cn);
 
         double sum_alpha = 0;
         for (i = 0; i < l; i++)
@@ -1366,8 +2697,8 @@ public class svm
             alpha[i] *= y[i];
     }
 
-    private static void solve_nu_svc(svm_problem prob, svm_parameter param,
-            double[] alpha, Solver.SolutionInfo si)
+    private static void solve_nu_svc(TrainingSet prob, svm_parameter param,
+            double[] alpha, Solver.SolutionInfo si, warm_start warm)
     {
         int i;
         int l = prob.l;
@@ -1401,10 +2732,16 @@ public class svm
         for (i = 0; i < l; i++)
             zeros[i] = 0;
 
+        QMatrix Q = (warm != null && warm.Q != null) ? warm.Q : new SVC_Q(prob, param, y);
+        if (warm != null)
+            warm.init(alpha, y, 1.0, 1.0, false);
+
         Solver_NU s = new Solver_NU();
         s.Solve(
-            l, new SVC_Q(prob, param, y), zeros, y,
-            alpha, 1.0, 1.0, param.eps, si, param.shrinking);
+            l, Q, zeros, y,
+            alpha, 1.0, 1.0, param.eps, si, param.shrinking, param, prob.deadline);
+        if (warm != null)
+            warm.save(s, Q, alpha, 1.0, 1.0);
         double r = si.r;
 
         svm.info("C = " + 1 / r + "\n");
@@ -1418,8 +2755,8 @@ public class svm
         si.upper_bound_n = 1 / r;
     }
 
-    private static void solve_one_class(svm_problem prob, svm_parameter param,
-            double[] alpha, Solver.SolutionInfo si)
+    private static void solve_one_class(TrainingSet prob, svm_parameter param,
+            double[] alpha, Solver.SolutionInfo si, warm_start warm)
     {
         int l = prob.l;
         double[] zeros = new double[l];
@@ -1441,14 +2778,20 @@ public class svm
             ones[i] = 1;
         }
 
+        QMatrix Q = (warm != null && warm.Q != null) ? warm.Q : new ONE_CLASS_Q(prob, param);
+        if (warm != null)
+            warm.init(alpha, ones, 1.0, 1.0, false);
+
         Solver s = new Solver();
         s.Solve(
-            l, new ONE_CLASS_Q(prob, param), zeros, ones,
-            alpha, 1.0, 1.0, param.eps, si, param.shrinking);
+            l, Q, zeros, ones,
+            alpha, 1.0, 1.0, param.eps, si, param.shrinking, param, prob.deadline);
+        if (warm != null)
+            warm.save(s, Q, alpha, 1.0, 1.0);
     }
 
-    private static void solve_epsilon_svr(svm_problem prob, svm_parameter param,
-            double[] alpha, Solver.SolutionInfo si)
+    private static void solve_epsilon_svr(TrainingSet prob, svm_parameter param,
+            double[] alpha, Solver.SolutionInfo si, warm_start warm)
     {
         int l = prob.l;
         double[] alpha2 = new double[2 * l];
@@ -1467,10 +2810,16 @@ public class svm
             y[i + l] = -1;
         }
 
+        QMatrix Q = (warm != null && warm.Q != null) ? warm.Q : new SVR_Q(prob, param);
+        if (warm != null)
+            warm.init(alpha2, y, param.C, param.C, false);
+
         Solver s = new Solver();
         s.Solve(
-            2 * l, new SVR_Q(prob, param), linear_term, y,
-            alpha2, param.C, param.C, param.eps, si, param.shrinking);
+            2 * l, Q, linear_term, y,
+            alpha2, param.C, param.C, param.eps, si, param.shrinking, param, prob.deadline);
+        if (warm != null)
+            warm.save(s, Q, alpha2, param.C, param.C);
 
         double sum_alpha = 0;
         for (i = 0; i < l; i++)
@@ -1481,8 +2830,8 @@ public class svm
         svm.info("nu = " + sum_alpha / (param.C * l) + "\n");
     }
 
-    private static void solve_nu_svr(svm_problem prob, svm_parameter param,
-            double[] alpha, Solver.SolutionInfo si)
+    private static void solve_nu_svr(TrainingSet prob, svm_parameter param,
+            double[] alpha, Solver.SolutionInfo si, warm_start warm)
     {
         int l = prob.l;
         double C = param.C;
@@ -1504,10 +2853,16 @@ public class svm
             y[i + l] = -1;
         }
 
+        QMatrix Q = (warm != null && warm.Q != null) ? warm.Q : new SVR_Q(prob, param);
+        if (warm != null)
+            warm.init(alpha2, y, C, C, true);
+
         Solver_NU s = new Solver_NU();
         s.Solve(
-            2 * l, new SVR_Q(prob, param), linear_term, y,
-            alpha2, C, C, param.eps, si, param.shrinking);
+            2 * l, Q, linear_term, y,
+            alpha2, C, C, param.eps, si, param.shrinking, param, prob.deadline);
+        if (warm != null)
+            warm.save(s, Q, alpha2, C, C);
 
         svm.info("epsilon = " + (-si.r) + "\n");
 
@@ -1524,28 +2879,30 @@ public class svm
         double rho;
     };
 
+    // warm, if not null, carries the solver state from the previous call on
+    // the same problem with another C and is updated for the next one
     static decision_function svm_train_one(
-            svm_problem prob, svm_parameter param,
-            double Cp, double Cn)
+            TrainingSet prob, svm_parameter param,
+            double Cp, double Cn, warm_start warm)
     {
         double[] alpha = new double[prob.l];
         Solver.SolutionInfo si = new Solver.SolutionInfo();
         switch (param.svm_type)
         {
             case svm_parameter.C_SVC:
-                solve_c_svc(prob, param, alpha, si, Cp, Cn);
+                solve_c_svc(prob, param, alpha, si, Cp, Cn, warm);
                 break;
             case svm_parameter.NU_SVC:
-                solve_nu_svc(prob, param, alpha, si);
+                solve_nu_svc(prob, param, alpha, si, warm);
                 break;
             case svm_parameter.ONE_CLASS:
-                solve_one_class(prob, param, alpha, si);
+                solve_one_class(prob, param, alpha, si, warm);
                 break;
             case svm_parameter.EPSILON_SVR:
-                solve_epsilon_svr(prob, param, alpha, si);
+                solve_epsilon_svr(prob, param, alpha, si, warm);
                 break;
             case svm_parameter.NU_SVR:
-                solve_nu_svr(prob, param, alpha, si);
+                solve_nu_svr(prob, param, alpha, si, warm);
                 break;
         }
 
@@ -1714,12 +3071,11 @@ public class svm
     }
 
     // Method 2 from the multiclass_prob paper by Wu, Lin, and Weng
-    private static void multiclass_probability(int k, double[][] r, double[] p)
+    // (Q[k][k] and Qp[k] are scratch space)
+    private static void multiclass_probability(int k, double[][] r, double[] p, double[][] Q, double[] Qp)
     {
         int t, j;
         int iter = 0, max_iter = Math.max(100, k);
-        double[][] Q = new double[k][k];
-        double[] Qp = new double[k];
         double pQp, eps = 0.005 / k;
 
         for (t = 0; t < k; t++)
@@ -1773,45 +3129,55 @@ public class svm
             svm.info("Exceeds max_iter in multiclass_prob\n");
     }
 
-    // Cross-validation decision values for probability estimates
-    private static void svm_binary_svc_probability(svm_problem prob, svm_parameter param, double Cp, double Cn, double[] probAB)
+    // random shuffle of 0, ..., l-1
+    private static int[] svm_shuffle(int l, Random rnd)
     {
         int i;
-        int nr_fold = 5;
-        int[] perm = new int[prob.l];
-        double[] dec_values = new double[prob.l];
-
-        // random shuffle
-        for(i=0;i<prob.l;i++) perm[i]=i;
-        for(i=0;i<prob.l;i++)
+        int[] perm = new int[l];
+        for(i=0;i<l;i++) perm[i]=i;
+        for(i=0;i<l;i++)
         {
-            int j = i+rand.nextInt(prob.l-i);
+            int j = i+rnd.nextInt(l-i);
             swap(int,perm[i],perm[j]);
         }
-        for(i=0;i<nr_fold;i++)
+        return perm;
+    }
+
+    // Cross-validation decision values for probability estimates
+    // perm is a random permutation of [0, prob.l) from svm_shuffle
+    private static void svm_binary_svc_probability(TrainingSet prob, svm_parameter param, double Cp, double Cn, int[] perm, double[] probAB)
+    {
+        int nr_fold = 5;
+        double[] dec_values = new double[prob.l];
+
+        // the folds need no random numbers and fill disjoint parts of
+        // dec_values, so they can be trained concurrently
+        int nr_worker = Math.min(Parallel.nr_thread(param), nr_fold);
+        TrainingSet fold_prob = prob.concurrent(param, nr_worker);
+
+        Parallel.tasks(param, nr_fold, nr_worker, f ->
         {
-            int begin = i*prob.l/nr_fold;
-            int end = (i+1)*prob.l/nr_fold;
+            int begin = f*prob.l/nr_fold;
+            int end = (f+1)*prob.l/nr_fold;
             int j,k;
-            svm_problem subprob = new svm_problem();
-
-            subprob.l = prob.l-(end-begin);
-            subprob.x = new svm_node[subprob.l][];
-            subprob.y = new double[subprob.l];
+            int sub_l = prob.l-(end-begin);
+            int[] sub_rows = new int[sub_l];
+            double[] sub_y = new double[sub_l];
 
             k=0;
             for(j=0;j<begin;j++)
             {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
+                sub_rows[k] = perm[j];
+                sub_y[k] = prob.y[perm[j]];
                 ++k;
             }
             for(j=end;j<prob.l;j++)
             {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
+                sub_rows[k] = perm[j];
+                sub_y[k] = prob.y[perm[j]];
                 ++k;
             }
+            TrainingSet subprob = fold_prob.subset(sub_rows, sub_y);
             int p_count=0,n_count=0;
             for(j=0;j<k;j++)
                 if(subprob.y[j]>0)
@@ -1840,31 +3206,38 @@ public class svm
                 subparam.weight_label[1]=-1;
                 subparam.weight[0]=Cp;
                 subparam.weight[1]=Cn;
-                svm_model submodel = svm_train(subprob,subparam);
+                svm_model submodel = svm_train(subprob,subparam,rand);
                 for(j=begin;j<end;j++)
                 {
                     double[] dec_value=new double[1];
-                    svm_predict_values(submodel,prob.x[perm[j]],dec_value);
+                    svm_predict_values(submodel,prob.x.row(perm[j]),dec_value);
                     dec_values[perm[j]]=dec_value[0];
                     // ensure +1 -1 order; reason not using CV subroutine
                     dec_values[perm[j]] *= submodel.label[0];
                 }
             }
-        }
+        });
         sigmoid_train(prob.l,dec_values,prob.y,probAB);
     }
 
     // Return parameter of a Laplace distribution
-    private static double svm_svr_probability(svm_problem prob, svm_parameter param)
+    private static double svm_svr_probability(TrainingSet prob, svm_parameter param, Random rnd)
     {
-        int i;
         int nr_fold = 5;
         double[] ymv = new double[prob.l];
-        double mae = 0;
 
         svm_parameter newparam = (svm_parameter) param.clone();
         newparam.probability = 0;
-        svm_cross_validation(prob, newparam, nr_fold, ymv);
+        svm_cross_validation(prob, newparam, nr_fold, ymv, rnd);
+        return svm_svr_probability(prob, ymv);
+    }
+
+    // the same from out-of-fold predictions ymv, which are overwritten
+    private static double svm_svr_probability(TrainingSet prob, double[] ymv)
+    {
+        int i;
+        double mae = 0;
+
         for (i = 0; i < prob.l; i++)
         {
             ymv[i] = prob.y[i] - ymv[i];
@@ -1886,7 +3259,7 @@ public class svm
 
     // label: label name, start: begin of each class, count: #data of classes, perm: indices to the original data
     // perm, length l, must be allocated before calling this subroutine
-    private static void svm_group_classes(svm_problem prob, int[] nr_class_ret, int[][] label_ret, int[][] start_ret, int[][] count_ret, int[] perm)
+    private static void svm_group_classes(TrainingSet prob, int[] nr_class_ret, int[][] label_ret, int[][] start_ret, int[][] count_ret, int[] perm)
     {
         int l = prob.l;
         int max_nr_class = 16;
@@ -1964,55 +3337,164 @@ public class svm
         count_ret[0] = count;
     }
 
+    // class labels in the order svm_train gives them for prob
+    private static int[] svm_group_labels(TrainingSet prob)
+    {
+        int[] nr_class = new int[1];
+        int[][] label = new int[1][];
+        svm_group_classes(prob, nr_class, label, new int[1][], new int[1][], new int[prob.l]);
+        return Arrays.copyOf(label[0], nr_class[0]);
+    }
+
+    // caller-provided decision values must have nr_dec values for each of the l instances
+    private static void svm_check_cv_dec_values(double[][] cv_dec_values, int l, int nr_dec)
+    {
+        if (cv_dec_values.length != l)
+            throw new IllegalArgumentException("cv_dec_values has " + cv_dec_values.length + " rows for " + l + " instances");
+        for (int i = 0; i < l; i++)
+            if (cv_dec_values[i] == null || cv_dec_values[i].length != nr_dec)
+                throw new IllegalArgumentException("cv_dec_values[" + i + "] does not hold " + nr_dec + " decision values");
+    }
+
     //
     // Interface functions
     //
     public static svm_model svm_train(svm_problem prob, svm_parameter param)
     {
-        svm_model model = new svm_model();
-        model.param = param;
+        return svm_train(new TrainingSet(prob, param).shared(param), param, rand);
+    }
+
+    public static svm_model svm_train(svm_csr_problem prob, svm_parameter param)
+    {
+        return svm_train(new TrainingSet(prob, param).shared(param), param, rand);
+    }
+
+    // Training with probability estimates fitted to the out-of-fold decision
+    // values from svm_cross_validation on the same problem, instead of an
+    // internal cross validation
+    public static svm_model svm_train(svm_problem prob, svm_parameter param, double[][] cv_dec_values)
+    {
+        return svm_train(new TrainingSet(prob, param).shared(param), param, cv_dec_values, rand);
+    }
+
+    public static svm_model svm_train(svm_csr_problem prob, svm_parameter param, double[][] cv_dec_values)
+    {
+        return svm_train(new TrainingSet(prob, param).shared(param), param, cv_dec_values, rand);
+    }
+
+    // Regularization path: models for C = C[0], C[1], ... (best increasing),
+    // each trained from the previous solution with the kernel cache kept
+    public static svm_model[] svm_train_path(svm_problem prob, svm_parameter param, double[] C)
+    {
+        return svm_train_path(new TrainingSet(prob, param).shared(param), svm_path_params(param, C), null, rand);
+    }
+
+    public static svm_model[] svm_train_path(svm_csr_problem prob, svm_parameter param, double[] C)
+    {
+        return svm_train_path(new TrainingSet(prob, param).shared(param), svm_path_params(param, C), null, rand);
+    }
+
+    private static svm_parameter[] svm_path_params(svm_parameter param, double[] C)
+    {
+        svm_parameter[] params = new svm_parameter[C.length];
+        for (int k = 0; k < C.length; k++)
+        {
+            params[k] = (svm_parameter) param.clone();
+            params[k].C = C[k];
+        }
+        return params;
+    }
+
+    static svm_model svm_train(TrainingSet prob, svm_parameter param, Random rnd)
+    {
+        return svm_train(prob, param, null, rnd);
+    }
+
+    // rnd provides the random shuffles for probability estimates, unless
+    // they are fitted to cv_dec_values
+    static svm_model svm_train(TrainingSet prob, svm_parameter param, double[][] cv_dec_values, Random rnd)
+    {
+        return svm_train_path(prob, new svm_parameter[] { param }, cv_dec_values, rnd)[0];
+    }
+
+    // one model for each of params[0], params[1], ..., which differ only in
+    // C. Each binary problem is solved for them in turn, starting from the
+    // previous solution and keeping its kernel cache
+    static svm_model[] svm_train_path(TrainingSet prob, svm_parameter[] params, double[][] cv_dec_values, Random rnd)
+    {
+        return svm_train_path(prob, params, cv_dec_values, rnd, null);
+    }
+
+    // model_done, if not null, is run with k as soon as models[k] is
+    // complete, possibly in a worker thread and before later C values
+    // are done
+    static svm_model[] svm_train_path(TrainingSet prob, svm_parameter[] params, double[][] cv_dec_values, Random rnd, path_model_interface model_done)
+    {
+        if (params.length == 0)
+            return new svm_model[0];
+        svm_parameter param = params[0];
+        int nr_path = params.length;
+        svm_model[] models = new svm_model[nr_path];
+        int k;
 
         if (param.svm_type == svm_parameter.ONE_CLASS ||
                 param.svm_type == svm_parameter.EPSILON_SVR ||
                 param.svm_type == svm_parameter.NU_SVR)
         {
             // regression or one-class-svm
-            model.nr_class = 2;
-            model.label = null;
-            model.nSV = null;
-            model.probA = null;
-            model.probB = null;
-            model.sv_coef = new double[1][];
-
-            if (param.probability == 1 &&
-                    (param.svm_type == svm_parameter.EPSILON_SVR ||
-                            param.svm_type == svm_parameter.NU_SVR))
+            warm_start warm = (nr_path > 1) ? new warm_start() : null;
+            for (k = 0; k < nr_path; k++)
             {
-                model.probA = new double[1];
-                model.probA[0] = svm_svr_probability(prob, param);
-            }
-
-            decision_function f = svm_train_one(prob, param, 0, 0);
-            model.rho = new double[1];
-            model.rho[0] = f.rho;
+                svm_model model = new svm_model();
+                model.param = params[k];
+                model.nr_class = 2;
+                model.label = null;
+                model.nSV = null;
+                model.probA = null;
+                model.probB = null;
+                model.sv_coef = new double[1][];
 
-            int nSV = 0;
-            int i;
-            for (i = 0; i < prob.l; i++)
-                if (Math.abs(f.alpha[i]) > 0) ++nSV;
-            model.l = nSV;
-            model.SV = new svm_node[nSV][];
-            model.sv_coef[0] = new double[nSV];
-            model.sv_indices = new int[nSV];
-            int j = 0;
-            for (i = 0; i < prob.l; i++)
-                if (Math.abs(f.alpha[i]) > 0)
-                {
-                    model.SV[j] = prob.x[i];
-                    model.sv_coef[0][j] = f.alpha[i];
-                    model.sv_indices[j] = i + 1;
-                    ++j;
+                if (param.probability == 1 &&
+                        (param.svm_type == svm_parameter.EPSILON_SVR ||
+                                param.svm_type == svm_parameter.NU_SVR))
+                {
+                    model.probA = new double[1];
+                    if (cv_dec_values != null)
+                    {
+                        svm_check_cv_dec_values(cv_dec_values, prob.l, 1);
+                        double[] ymv = new double[prob.l];
+                        for (int i = 0; i < prob.l; i++)
+                            ymv[i] = cv_dec_values[i][0];
+                        model.probA[0] = svm_svr_probability(prob, ymv);
+                    }
+                    else
+                        model.probA[0] = svm_svr_probability(prob, params[k], rnd);
                 }
+
+                decision_function f = svm_train_one(prob, params[k], 0, 0, warm);
+                model.rho = new double[1];
+                model.rho[0] = f.rho;
+
+                int nSV = 0;
+                int i;
+                for (i = 0; i < prob.l; i++)
+                    if (Math.abs(f.alpha[i]) > 0) ++nSV;
+                model.l = nSV;
+                model.SV = new svm_node[nSV][];
+                model.sv_coef[0] = new double[nSV];
+                model.sv_indices = new int[nSV];
+                int j = 0;
+                for (i = 0; i < prob.l; i++)
+                    if (Math.abs(f.alpha[i]) > 0)
+                    {
+                        model.SV[j] = prob.x.row(i);
+                        model.sv_coef[0][j] = f.alpha[i];
+                        model.sv_indices[j] = i + 1;
+                        ++j;
+                    }
+                models[k] = model;
+                svm_path_model_done(models, k, model_done);
+            }
         }
         else
         {
@@ -2034,179 +3516,325 @@ public class svm
             if (nr_class == 1)
                 svm.info("WARNING: training data in only one class. See README for details.\n");
 
-            svm_node[][] x = new svm_node[l][];
             int i;
-            for (i = 0; i < l; i++)
-                x[i] = prob.x[perm[i]];
 
             // calculate weighted C
 
-            double[] weighted_C = new double[nr_class];
-            for (i = 0; i < nr_class; i++)
-                weighted_C[i] = param.C;
-            for (i = 0; i < param.nr_weight; i++)
+            double[][] weighted_C = new double[nr_path][nr_class];
+            for (k = 0; k < nr_path; k++)
             {
-                int j;
-                for (j = 0; j < nr_class; j++)
-                    if (param.weight_label[i] == label[j])
-                        break;
-                if (j == nr_class)
-                    System.err.print("WARNING: class label " + param.weight_label[i] + " specified in weight is not found\n");
-                else
-                    weighted_C[j] *= param.weight[i];
+                for (i = 0; i < nr_class; i++)
+                    weighted_C[k][i] = params[k].C;
+                for (i = 0; i < param.nr_weight; i++)
+                {
+                    int j;
+                    for (j = 0; j < nr_class; j++)
+                        if (param.weight_label[i] == label[j])
+                            break;
+                    if (j == nr_class)
+                    {
+                        if (k == 0)
+                            System.err.print("WARNING: class label " + param.weight_label[i] + " specified in weight is not found\n");
+                    }
+                    else
+                        weighted_C[k][j] *= param.weight[i];
+                }
             }
 
             // train k*(k-1)/2 models
 
-            boolean[] nonzero = new boolean[l];
-            for (i = 0; i < l; i++)
-                nonzero[i] = false;
-            decision_function[] f = new decision_function[nr_class * (nr_class - 1) / 2];
+            int nr_pair = nr_class * (nr_class - 1) / 2;
+            decision_function[][] f = new decision_function[nr_path][nr_pair];
 
-            double[] probA = null, probB = null;
-            if (param.probability == 1)
-            {
-                probA = new double[nr_class * (nr_class - 1) / 2];
-                probB = new double[nr_class * (nr_class - 1) / 2];
-            }
+            double[][] probA = (param.probability == 1) ? new double[nr_path][nr_pair] : null;
+            double[][] probB = (param.probability == 1) ? new double[nr_path][nr_pair] : null;
+            if (param.probability == 1 && cv_dec_values != null)
+                svm_check_cv_dec_values(cv_dec_values, l, nr_pair);
 
+            int[] pair_i = new int[nr_pair];
+            int[] pair_j = new int[nr_pair];
             int p = 0;
             for (i = 0; i < nr_class; i++)
                 for (int j = i + 1; j < nr_class; j++)
                 {
-                    svm_problem sub_prob = new svm_problem();
-                    int si = start[i], sj = start[j];
-                    int ci = count[i], cj = count[j];
-                    sub_prob.l = ci + cj;
-                    sub_prob.x = new svm_node[sub_prob.l][];
-                    sub_prob.y = new double[sub_prob.l];
-                    int k;
-                    for (k = 0; k < ci; k++)
+                    pair_i[p] = i;
+                    pair_j[p] = j;
+                    ++p;
+                }
+            // shuffles for the probability CV are drawn in order, so that
+            // they do not depend on scheduling
+            int[][][] prob_perm = (param.probability == 1 && cv_dec_values == null) ? new int[nr_path][nr_pair][] : null;
+            if (prob_perm != null)
+                for (k = 0; k < nr_path; k++)
+                    for (p = 0; p < nr_pair; p++)
+                        prob_perm[k][p] = svm_shuffle(count[pair_i[p]] + count[pair_j[p]], rnd);
+
+            // pairs are trained concurrently by up to nr_thread workers,
+            // largest first, with the kernel cache of TrainingSet.concurrent
+            int nr_worker = Math.min(Parallel.nr_thread(param), nr_pair);
+            TrainingSet pair_prob = prob.concurrent(param, nr_worker);
+            Integer[] order = new Integer[nr_pair];
+            for (p = 0; p < nr_pair; p++)
+                order[p] = p;
+            Arrays.sort(order, (p1, p2) -> (count[pair_i[p2]] + count[pair_j[p2]]) - (count[pair_i[p1]] + count[pair_j[p1]]));
+            // model k is built by the worker that trains its last pair
+            int[] pair_left = new int[nr_path];
+            for (k = 0; k < nr_path; k++)
+                pair_left[k] = nr_pair;
+
+            Parallel.tasks(param, nr_pair, nr_worker, t ->
+            {
+                int q = order[t];
+                int pi = pair_i[q], pj = pair_j[q];
+                int si = start[pi], sj = start[pj];
+                int ci = count[pi], cj = count[pj];
+                int[] sub_rows = new int[ci + cj];
+                double[] sub_y = new double[ci + cj];
+                int r;
+                for (r = 0; r < ci; r++)
+                {
+                    sub_rows[r] = perm[si + r];
+                    sub_y[r] = +1;
+                }
+                for (r = 0; r < cj; r++)
+                {
+                    sub_rows[ci + r] = perm[sj + r];
+                    sub_y[ci + r] = -1;
+                }
+                TrainingSet sub_prob = pair_prob.subset(sub_rows, sub_y);
+                warm_start warm = (nr_path > 1) ? new warm_start() : null;
+
+                for (int c = 0; c < nr_path; c++)
+                {
+                    if (param.probability == 1)
                     {
-                        sub_prob.x[k] = x[si + k];
-                        sub_prob.y[k] = +1;
+                        double[] probAB = new double[2];
+                        if (cv_dec_values != null)
+                        {
+                            double[] dec_values = new double[ci + cj];
+                            for (r = 0; r < ci + cj; r++)
+                                dec_values[r] = cv_dec_values[sub_rows[r]][q];
+                            sigmoid_train(ci + cj, dec_values, sub_y, probAB);
+                        }
+                        else
+                            svm_binary_svc_probability(sub_prob, params[c], weighted_C[c][pi], weighted_C[c][pj], prob_perm[c][q], probAB);
+                        probA[c][q] = probAB[0];
+                        probB[c][q] = probAB[1];
                     }
-                    for (k = 0; k < cj; k++)
+
+                    f[c][q] = svm_train_one(sub_prob, params[c], weighted_C[c][pi], weighted_C[c][pj], warm);
+                    boolean last;
+                    synchronized (pair_left)
                     {
-                        sub_prob.x[ci + k] = x[sj + k];
-                        sub_prob.y[ci + k] = -1;
+                        last = --pair_left[c] == 0;
                     }
-
-                    if (param.probability == 1)
+                    if (last)
                     {
-                        double[] probAB = new double[2];
-                        svm_binary_svc_probability(sub_prob, param, weighted_C[i], weighted_C[j], probAB);
-                        probA[p] = probAB[0];
-                        probB[p] = probAB[1];
+                        models[c] = svm_classification_model(prob, nr_class, label, start, count, perm, f[c],
+                                (probA != null) ? probA[c] : null, (probB != null) ? probB[c] : null);
+                        models[c].param = params[c];
+                        svm_path_model_done(models, c, model_done);
                     }
+                }
+            });
 
-                    f[p] = svm_train_one(sub_prob, param, weighted_C[i], weighted_C[j]);
-                    for (k = 0; k < ci; k++)
-                        if (!nonzero[si + k] && Math.abs(f[p].alpha[k]) > 0)
-                            nonzero[si + k] = true;
-                    for (k = 0; k < cj; k++)
-                        if (!nonzero[sj + k] && Math.abs(f[p].alpha[ci + k]) > 0)
-                            nonzero[sj + k] = true;
-                    ++p;
+            // no pairs with a single class
+            for (k = 0; k < nr_path; k++)
+                if (models[k] == null)
+                {
+                    models[k] = svm_classification_model(prob, nr_class, label, start, count, perm, f[k],
+                            (probA != null) ? probA[k] : null, (probB != null) ? probB[k] : null);
+                    models[k].param = params[k];
+                    svm_path_model_done(models, k, model_done);
                 }
+        }
+        return models;
+    }
 
-            // build output
+    private static void svm_path_model_done(svm_model[] models, int k, path_model_interface model_done)
+    {
+        models[k].sv_square = svm_sv_square(models[k]);
+        if (models[k].param.primal == 1)
+            models[k].w = svm_primal_w(models[k]);
+        if (model_done != null)
+            model_done.done(k, models[k]);
+    }
 
-            model.nr_class = nr_class;
+    // model from the one-vs-one decision functions f of the classes grouped
+    // by svm_group_classes
+    private static svm_model svm_classification_model(TrainingSet prob, int nr_class, int[] label, int[] start, int[] count, int[] perm,
+            decision_function[] f, double[] probA, double[] probB)
+    {
+        svm_model model = new svm_model();
+        int l = prob.l;
+        int i, p;
 
-            model.label = new int[nr_class];
-            for (i = 0; i < nr_class; i++)
-                model.label[i] = label[i];
+        boolean[] nonzero = new boolean[l];
+        for (i = 0; i < l; i++)
+            nonzero[i] = false;
+        p = 0;
+        for (i = 0; i < nr_class; i++)
+            for (int j = i + 1; j < nr_class; j++)
+            {
+                int si = start[i], sj = start[j];
+                int ci = count[i], cj = count[j];
+                int k;
+                for (k = 0; k < ci; k++)
+                    if (!nonzero[si + k] && Math.abs(f[p].alpha[k]) > 0)
+                        nonzero[si + k] = true;
+                for (k = 0; k < cj; k++)
+                    if (!nonzero[sj + k] && Math.abs(f[p].alpha[ci + k]) > 0)
+                        nonzero[sj + k] = true;
+                ++p;
+            }
 
-            model.rho = new double[nr_class * (nr_class - 1) / 2];
-            for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
-                model.rho[i] = f[i].rho;
+        // build output
 
-            if (param.probability == 1)
+        model.nr_class = nr_class;
+
+        model.label = new int[nr_class];
+        for (i = 0; i < nr_class; i++)
+            model.label[i] = label[i];
+
+        model.rho = new double[nr_class * (nr_class - 1) / 2];
+        for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+            model.rho[i] = f[i].rho;
+
+        if (probA != null)
+        {
+            model.probA = new double[nr_class * (nr_class - 1) / 2];
+            model.probB = new double[nr_class * (nr_class - 1) / 2];
+            for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
             {
-                model.probA = new double[nr_class * (nr_class - 1) / 2];
-                model.probB = new double[nr_class * (nr_class - 1) / 2];
-                for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+                model.probA[i] = probA[i];
+                model.probB[i] = probB[i];
+            }
+        }
+        else
+        {
+            model.probA = null;
+            model.probB = null;
+        }
+
+        int nnz = 0;
+        int[] nz_count = new int[nr_class];
+        model.nSV = new int[nr_class];
+        for (i = 0; i < nr_class; i++)
+        {
+            int nSV = 0;
+            for (int j = 0; j < count[i]; j++)
+                if (nonzero[start[i] + j])
                 {
-                    model.probA[i] = probA[i];
-                    model.probB[i] = probB[i];
+                    ++nSV;
+                    ++nnz;
                 }
-            }
-            else
+            model.nSV[i] = nSV;
+            nz_count[i] = nSV;
+        }
+
+        svm.info("Total nSV = " + nnz + "\n");
+
+        model.l = nnz;
+        model.SV = new svm_node[nnz][];
+        model.sv_indices = new int[nnz];
+        p = 0;
+        for (i = 0; i < l; i++)
+            if (nonzero[i])
             {
-                model.probA = null;
-                model.probB = null;
+                model.SV[p] = prob.x.row(perm[i]);
+                model.sv_indices[p++] = perm[i] + 1;
             }
 
-            int nnz = 0;
-            int[] nz_count = new int[nr_class];
-            model.nSV = new int[nr_class];
-            for (i = 0; i < nr_class; i++)
+        int[] nz_start = new int[nr_class];
+        nz_start[0] = 0;
+        for (i = 1; i < nr_class; i++)
+            nz_start[i] = nz_start[i - 1] + nz_count[i - 1];
+
+        model.sv_coef = new double[nr_class - 1][];
+        for (i = 0; i < nr_class - 1; i++)
+            model.sv_coef[i] = new double[nnz];
+
+        p = 0;
+        for (i = 0; i < nr_class; i++)
+            for (int j = i + 1; j < nr_class; j++)
             {
-                int nSV = 0;
-                for (int j = 0; j < count[i]; j++)
-                    if (nonzero[start[i] + j])
-                    {
-                        ++nSV;
-                        ++nnz;
-                    }
-                model.nSV[i] = nSV;
-                nz_count[i] = nSV;
+                // classifier (i,j): coefficients with
+                // i are in sv_coef[j-1][nz_start[i]...],
+                // j are in sv_coef[i][nz_start[j]...]
+
+                int si = start[i];
+                int sj = start[j];
+                int ci = count[i];
+                int cj = count[j];
+
+                int q = nz_start[i];
+                int k;
+                for (k = 0; k < ci; k++)
+                    if (nonzero[si + k])
+                        model.sv_coef[j - 1][q++] = f[p].alpha[k];
+                q = nz_start[j];
+                for (k = 0; k < cj; k++)
+                    if (nonzero[sj + k])
+                        model.sv_coef[i][q++] = f[p].alpha[ci + k];
+                ++p;
             }
+        return model;
+    }
 
-            svm.info("Total nSV = " + nnz + "\n");
+    // Stratified cross validation
+    public static void svm_cross_validation(svm_problem prob, svm_parameter param, int nr_fold, double[] target)
+    {
+        svm_cross_validation(new TrainingSet(prob, param).shared(param), param, nr_fold, target, rand);
+    }
 
-            model.l = nnz;
-            model.SV = new svm_node[nnz][];
-            model.sv_indices = new int[nnz];
-            p = 0;
-            for (i = 0; i < l; i++)
-                if (nonzero[i])
-                {
-                    model.SV[p] = x[i];
-                    model.sv_indices[p++] = perm[i] + 1;
-                }
+    public static void svm_cross_validation(svm_csr_problem prob, svm_parameter param, int nr_fold, double[] target)
+    {
+        svm_cross_validation(new TrainingSet(prob, param).shared(param), param, nr_fold, target, rand);
+    }
 
-            int[] nz_start = new int[nr_class];
-            nz_start[0] = 0;
-            for (i = 1; i < nr_class; i++)
-                nz_start[i] = nz_start[i - 1] + nz_count[i - 1];
+    // Cross validation which also sets dec_values[i] to the decision values
+    // of instance i under its fold model, in the pair order of a model
+    // trained on the whole problem (one value for regression and one-class)
+    public static void svm_cross_validation(svm_problem prob, svm_parameter param, int nr_fold, double[] target, double[][] dec_values)
+    {
+        svm_cross_validation(new TrainingSet(prob, param).shared(param), param, nr_fold, target, dec_values, rand);
+    }
 
-            model.sv_coef = new double[nr_class - 1][];
-            for (i = 0; i < nr_class - 1; i++)
-                model.sv_coef[i] = new double[nnz];
+    public static void svm_cross_validation(svm_csr_problem prob, svm_parameter param, int nr_fold, double[] target, double[][] dec_values)
+    {
+        svm_cross_validation(new TrainingSet(prob, param).shared(param), param, nr_fold, target, dec_values, rand);
+    }
 
-            p = 0;
-            for (i = 0; i < nr_class; i++)
-                for (int j = i + 1; j < nr_class; j++)
-                {
-                    // classifier (i,j): coefficients with
-                    // i are in sv_coef[j-1][nz_start[i]...],
-                    // j are in sv_coef[i][nz_start[j]...]
+    // Cross validation along a regularization path: target[k] for C = C[k]
+    public static void svm_cross_validation_path(svm_problem prob, svm_parameter param, int nr_fold, double[] C, double[][] target)
+    {
+        svm_cross_validation_path(new TrainingSet(prob, param).shared(param), svm_path_params(param, C), nr_fold, target, null, rand, null);
+    }
 
-                    int si = start[i];
-                    int sj = start[j];
-                    int ci = count[i];
-                    int cj = count[j];
+    public static void svm_cross_validation_path(svm_csr_problem prob, svm_parameter param, int nr_fold, double[] C, double[][] target)
+    {
+        svm_cross_validation_path(new TrainingSet(prob, param).shared(param), svm_path_params(param, C), nr_fold, target, null, rand, null);
+    }
 
-                    int q = nz_start[i];
-                    int k;
-                    for (k = 0; k < ci; k++)
-                        if (nonzero[si + k])
-                            model.sv_coef[j - 1][q++] = f[p].alpha[k];
-                    q = nz_start[j];
-                    for (k = 0; k < cj; k++)
-                        if (nonzero[sj + k])
-                            model.sv_coef[i][q++] = f[p].alpha[ci + k];
-                    ++p;
-                }
-        }
-        return model;
+    static void svm_cross_validation(TrainingSet prob, svm_parameter param, int nr_fold, double[] target, Random rnd)
+    {
+        svm_cross_validation(prob, param, nr_fold, target, null, rnd);
     }
 
-    // Stratified cross validation
-    public static void svm_cross_validation(svm_problem prob, svm_parameter param, int nr_fold, double[] target)
+    static void svm_cross_validation(TrainingSet prob, svm_parameter param, int nr_fold, double[] target, double[][] dec_values, Random rnd)
+    {
+        svm_cross_validation_path(prob, new svm_parameter[] { param }, nr_fold, new double[][] { target }, dec_values, rnd, null);
+    }
+
+    // target[k] for params[k], which differ only in C, with each fold
+    // trained along the path; dec_values, if not null, for params[0].
+    // step_done, if not null, is run with k as soon as target[k] is
+    // complete, possibly in a worker thread
+    static void svm_cross_validation_path(TrainingSet prob, svm_parameter[] params, int nr_fold, double[][] target, double[][] dec_values, Random rnd, Parallel.Task step_done)
     {
+        if (params.length == 0)
+            return;
+        svm_parameter param = params[0];
         int i;
         int[] fold_start = new int[nr_fold+1];
         int l = prob.l;
@@ -2237,7 +3865,7 @@ public class svm
             for (c=0; c<nr_class; c++)
                 for(i=0;i<count[c];i++)
                 {
-                    int j = i+rand.nextInt(count[c]-i);
+                    int j = i+rnd.nextInt(count[c]-i);
                     swap(int,index[start[c]+j],index[start[c]+i]);
                 }
             for(i=0;i<nr_fold;i++)
@@ -2269,49 +3897,210 @@ public class svm
             for(i=0;i<l;i++) perm[i]=i;
             for(i=0;i<l;i++)
             {
-                int j = i+rand.nextInt(l-i);
+                int j = i+rnd.nextInt(l-i);
                 swap(int,perm[i],perm[j]);
             }
             for(i=0;i<=nr_fold;i++)
                 fold_start[i]=i*l/nr_fold;
         }
 
-        for(i=0;i<nr_fold;i++)
+        // folds are trained concurrently by up to nr_thread workers, with
+        // the kernel cache of TrainingSet.concurrent. Training with
+        // probability estimates draws random numbers, so each fold gets its
+        // own generator, seeded in fold order, and the result does not
+        // depend on scheduling
+        int nr_worker = Math.min(Parallel.nr_thread(param), nr_fold);
+        TrainingSet fold_prob = prob.concurrent(param, nr_worker);
+        long[] fold_seed = new long[nr_fold];
+        if (param.probability == 1)
+            for (i = 0; i < nr_fold; i++)
+                fold_seed[i] = rnd.nextLong();
+        int[] label = (dec_values != null &&
+                (param.svm_type == svm_parameter.C_SVC ||
+                        param.svm_type == svm_parameter.NU_SVC)) ? svm_group_labels(prob) : null;
+        int[] fold_left = new int[params.length];
+        for (i = 0; i < params.length; i++)
+            fold_left[i] = nr_fold;
+
+        Parallel.tasks(param, nr_fold, nr_worker, f ->
         {
-            int begin = fold_start[i];
-            int end = fold_start[i+1];
+            int begin = fold_start[f];
+            int end = fold_start[f+1];
             int j,k;
-            svm_problem subprob = new svm_problem();
-
-            subprob.l = l-(end-begin);
-            subprob.x = new svm_node[subprob.l][];
-            subprob.y = new double[subprob.l];
+            int sub_l = l-(end-begin);
+            int[] sub_rows = new int[sub_l];
+            double[] sub_y = new double[sub_l];
 
             k=0;
             for(j=0;j<begin;j++)
             {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
+                sub_rows[k] = perm[j];
+                sub_y[k] = prob.y[perm[j]];
                 ++k;
             }
             for(j=end;j<l;j++)
             {
-                subprob.x[k] = prob.x[perm[j]];
-                subprob.y[k] = prob.y[perm[j]];
+                sub_rows[k] = perm[j];
+                sub_y[k] = prob.y[perm[j]];
                 ++k;
             }
-            svm_model submodel = svm_train(subprob,param);
-            if(param.probability==1 &&
-               (param.svm_type == svm_parameter.C_SVC ||
-                param.svm_type == svm_parameter.NU_SVC))
+            TrainingSet subprob = fold_prob.subset(sub_rows, sub_y);
+            svm_train_path(subprob,params,null,new Random(fold_seed[f]),(c, submodel) ->
+            {
+                if (c == 0 && dec_values != null)
+                    svm_fold_dec_values(submodel, prob, perm, begin, end, label, dec_values);
+                if(param.probability==1 &&
+                   (param.svm_type == svm_parameter.C_SVC ||
+                    param.svm_type == svm_parameter.NU_SVC))
+                {
+                    double[] prob_estimates= new double[svm_get_nr_class(submodel)];
+                    for(int r=begin;r<end;r++)
+                        target[c][perm[r]] = svm_predict_probability(submodel,prob.x.row(perm[r]),prob_estimates);
+                }
+                else
+                    for(int r=begin;r<end;r++)
+                        target[c][perm[r]] = svm_predict(submodel,prob.x.row(perm[r]));
+                boolean last;
+                synchronized (fold_left)
+                {
+                    last = --fold_left[c] == 0;
+                }
+                if (last && step_done != null)
+                    step_done.run(c);
+            });
+        });
+    }
+
+    // Grid search over C = 2^log2c[i] and gamma = 2^log2g[j] by cross validation
+    public static double[] svm_grid_search(svm_problem prob, svm_parameter param, int nr_fold, double[] log2c, double[] log2g, svm_grid_interface result_func)
+    {
+        return svm_grid_search(new TrainingSet(prob, param), param, nr_fold, log2c, log2g, result_func, rand);
+    }
+
+    public static double[] svm_grid_search(svm_csr_problem prob, svm_parameter param, int nr_fold, double[] log2c, double[] log2g, svm_grid_interface result_func)
+    {
+        return svm_grid_search(new TrainingSet(prob, param), param, nr_fold, log2c, log2g, result_func, rand);
+    }
+
+    // rate[i*nr_g+j] is the accuracy (%) at (log2c[i], log2g[j]), or the mean
+    // squared error for regression; a null log2c or log2g keeps param.C or
+    // param.gamma, and NaN is passed to result_func for it
+    static double[] svm_grid_search(TrainingSet prob, svm_parameter param, int nr_fold, double[] log2c, double[] log2g, svm_grid_interface result_func, Random rnd)
+    {
+        int nr_c = (log2c != null) ? log2c.length : 1;
+        int nr_g = (log2g != null) ? log2g.length : 1;
+        double[] rate = new double[nr_c * nr_g];
+
+        // every point is cross validated on the same folds. For each gamma
+        // the C values form one regularization path in increasing order, and
+        // the gamma values are evaluated concurrently by up to nr_thread
+        // workers, splitting the shared cache between them. The C values of
+        // a path are solved one after the other, each from the previous
+        // solution, so with fewer gamma values than threads the other
+        // threads are left to the folds and one-vs-one pairs within a path
+        long seed = rnd.nextLong();
+        Integer[] c_order = new Integer[nr_c];
+        for (int t = 0; t < nr_c; t++)
+            c_order[t] = t;
+        if (log2c != null)
+            Arrays.sort(c_order, (c1, c2) -> Double.compare(log2c[c1], log2c[c2]));
+        int nr_worker = Math.min(Parallel.nr_thread(param), nr_g);
+        TrainingSet g_prob = prob.concurrent(param, nr_worker);
+        double g_shared_cache_size = param.shared_cache_size / Math.max(nr_worker, 1);
+
+        Parallel.tasks(param, nr_g, nr_worker, ig ->
+        {
+            double g = (log2g != null) ? log2g[ig] : Double.NaN;
+            svm_parameter[] params = new svm_parameter[nr_c];
+            for (int t = 0; t < nr_c; t++)
+            {
+                params[t] = (svm_parameter) param.clone();
+                params[t].shared_cache_size = g_shared_cache_size;
+                if (log2c != null)
+                    params[t].C = Math.pow(2, log2c[c_order[t]]);
+                if (log2g != null)
+                    params[t].gamma = Math.pow(2, g);
+            }
+
+            double[][] target = new double[nr_c][prob.l];
+            svm_cross_validation_path(g_prob.shared(params[0]), params, nr_fold, target, null, new Random(seed), t ->
+            {
+                int q = c_order[t] * nr_g + ig;
+                if (param.svm_type == svm_parameter.EPSILON_SVR ||
+                        param.svm_type == svm_parameter.NU_SVR)
+                {
+                    double total_error = 0;
+                    for (int i = 0; i < prob.l; i++)
+                        total_error += (target[t][i] - prob.y[i]) * (target[t][i] - prob.y[i]);
+                    rate[q] = total_error / prob.l;
+                }
+                else
+                {
+                    int total_correct = 0;
+                    for (int i = 0; i < prob.l; i++)
+                        if (target[t][i] == prob.y[i])
+                            ++total_correct;
+                    rate[q] = 100.0 * total_correct / prob.l;
+                }
+
+                if (result_func != null)
+                    synchronized (result_func)
+                    {
+                        result_func.result((log2c != null) ? log2c[c_order[t]] : Double.NaN, g, rate[q]);
+                    }
+            });
+        });
+        return rate;
+    }
+
+    // decision values of submodel for instances perm[begin..end) of prob, in
+    // the pair order of classes label (null for regression and one-class).
+    // A pair with a class the fold did not train on gets +1 if only its first
+    // class is present, -1 if only its second, 0 if neither
+    private static void svm_fold_dec_values(svm_model submodel, TrainingSet prob, int[] perm, int begin, int end, int[] label, double[][] dec_values)
+    {
+        int sub_nr_class = submodel.nr_class;
+        double[] sub_dec = new double[Math.max(sub_nr_class * (sub_nr_class - 1) / 2, 1)];
+        int j;
+        if (label == null)
+        {
+            for (j = begin; j < end; j++)
             {
-                double[] prob_estimates= new double[svm_get_nr_class(submodel)];
-                for(j=begin;j<end;j++)
-                    target[perm[j]] = svm_predict_probability(submodel,prob.x[perm[j]],prob_estimates);
+                svm_predict_values(submodel, prob.x.row(perm[j]), sub_dec);
+                dec_values[perm[j]] = new double[] { sub_dec[0] };
             }
-            else
-                for(j=begin;j<end;j++)
-                    target[perm[j]] = svm_predict(submodel,prob.x[perm[j]]);
+            return;
+        }
+
+        int nr_class = label.length;
+        int[] index = new int[nr_class];
+        for (int i = 0; i < nr_class; i++)
+        {
+            index[i] = -1;
+            for (int c = 0; c < sub_nr_class; c++)
+                if (submodel.label[c] == label[i])
+                    index[i] = c;
+        }
+        for (j = begin; j < end; j++)
+        {
+            svm_predict_values(submodel, prob.x.row(perm[j]), sub_dec);
+            double[] dec = new double[nr_class * (nr_class - 1) / 2];
+            int p = 0;
+            for (int i = 0; i < nr_class; i++)
+                for (int k = i + 1; k < nr_class; k++)
+                {
+                    int a = index[i], b = index[k];
+                    if (a >= 0 && b >= 0)
+                    {
+                        int lo = Math.min(a, b), hi = Math.max(a, b);
+                        double v = sub_dec[lo * (2 * sub_nr_class - lo - 1) / 2 + hi - lo - 1];
+                        dec[p] = (a < b) ? v : -v;
+                    }
+                    else
+                        dec[p] = (a >= 0) ? 1 : (b >= 0) ? -1 : 0;
+                    ++p;
+                }
+            dec_values[perm[j]] = dec;
         }
     }
 
@@ -2356,7 +4145,141 @@ public class svm
         }
     }
 
+    // squared norms of the SVs, so that rbf prediction needs only one dot
+    // product per SV; null for other kernels
+    private static double[] svm_sv_square(svm_model model)
+    {
+        if (model.param.kernel_type != svm_parameter.RBF)
+            return null;
+        double[] sv_square = new double[model.l];
+        for (int i = 0; i < model.l; i++)
+            sv_square[i] = Kernel.dot(model.SV[i], model.SV[i]);
+        return sv_square;
+    }
+
+    // primal weight vectors of a linear model, w[k(k-1)/2][n] with n one more
+    // than the largest SV feature index: decision function p is then
+    // w[p]'*x - rho[p]. null for other kernels or negative feature indices
+    static double[][] svm_primal_w(svm_model model)
+    {
+        if (model.param.kernel_type != svm_parameter.LINEAR)
+            return null;
+
+        int i;
+        int nr_class = model.nr_class;
+        int n = 0;
+        for (i = 0; i < model.l; i++)
+            for (svm_node node : model.SV[i])
+            {
+                if (node.index < 0)
+                    return null;
+                n = Math.max(n, node.index + 1);
+            }
+
+        int[] start = new int[nr_class];
+        int[] count = new int[nr_class];
+        if (model.param.svm_type == svm_parameter.ONE_CLASS ||
+                model.param.svm_type == svm_parameter.EPSILON_SVR ||
+                model.param.svm_type == svm_parameter.NU_SVR)
+            count[0] = model.l; // all SVs in one decision function
+        else
+        {
+            for (i = 0; i < nr_class; i++)
+                count[i] = model.nSV[i];
+            for (i = 1; i < nr_class; i++)
+                start[i] = start[i - 1] + count[i - 1];
+        }
+
+        double[][] w = new double[nr_class * (nr_class - 1) / 2][n];
+        int p = 0;
+        for (i = 0; i < nr_class; i++)
+            for (int j = i + 1; j < nr_class; j++)
+            {
+                double[] coef1 = model.sv_coef[j - 1];
+                double[] coef2 = model.sv_coef[i];
+                for (int k = start[i]; k < start[i] + count[i]; k++)
+                    for (svm_node node : model.SV[k])
+                        w[p][node.index] += coef1[k] * node.value;
+                for (int k = start[j]; k < start[j] + count[j]; k++)
+                    for (svm_node node : model.SV[k])
+                        w[p][node.index] += coef2[k] * node.value;
+                p++;
+            }
+        return w;
+    }
+
+    // decision values from the primal weight vectors; features beyond
+    // the SVs' largest index have zero weight
+    private static void svm_primal_values(svm_model model, svm_node[] x, double[] dec_values)
+    {
+        for (int p = 0; p < model.w.length; p++)
+        {
+            double[] w = model.w[p];
+            double sum = 0;
+            for (svm_node node : x)
+                if (node.index >= 0 && node.index < w.length)
+                    sum += w[node.index] * node.value;
+            dec_values[p] = sum - model.rho[p];
+        }
+    }
+
+    // dense copy of the SVs for svm_predict_values, built on first use
+    // (null if the SVs are sparse); threads racing to build it build equal
+    // matrices, so it does not matter whose is kept
+    private static DenseMatrix dense_SV(svm_model model)
+    {
+        DenseMatrix[] dense_SV = model.dense_SV;
+        if (dense_SV == null)
+        {
+            dense_SV = new DenseMatrix[1];
+            if (model.param.kernel_type != svm_parameter.PRECOMPUTED)
+                dense_SV[0] = DenseMatrix.of(new NodeMatrix(model.SV));
+            model.dense_SV = dense_SV;
+        }
+        return dense_SV[0];
+    }
+
+    // kernel value between x and SV i; dense_x, x_tail and x_square are
+    // prepared once per x by svm_predict_values
+    private static double k_function(svm_model model, DenseMatrix dense_SV, svm_node[] x, double[] dense_x, double x_tail, double x_square, int i)
+    {
+        if (model.param.kernel_type == svm_parameter.RBF && model.sv_square != null)
+        {
+            double dot = (dense_x != null) ? dense_SV.dot(i, dense_x) : Kernel.dot(x, model.SV[i]);
+            double k = Kernel.rbf_from_norms(model.param.gamma, x_square, model.sv_square[i], dot);
+            if (!Double.isNaN(k))
+                return k;
+        }
+        if (dense_x != null)
+            return Kernel.k_function(dense_x, x_tail, dense_SV, i, model.param);
+        return Kernel.k_function(x, model.SV[i], model.param);
+    }
+
     public static double svm_predict_values(svm_model model, svm_node[] x, double[] dec_values)
+    {
+        if (model.w != null)
+        {
+            svm_primal_values(model, x, dec_values);
+            return svm_predict_label(model, dec_values, null);
+        }
+
+        DenseMatrix dense_SV = dense_SV(model);
+        double[] dense_x = dense_SV != null ? new double[dense_SV.columns()] : null;
+        double x_tail = (dense_x != null) ? dense_SV.scatter(x, dense_x) : 0;
+        double x_square = (model.sv_square != null) ? Kernel.dot(x, x) : 0;
+        double[] kvalue = new double[model.l];
+        Parallel.range(model.param, 0, model.l, 1, (begin, end) ->
+        {
+            for (int i = begin; i < end; i++)
+                kvalue[i] = k_function(model, dense_SV, x, dense_x, x_tail, x_square, i);
+        });
+        return svm_predict_values(model, kvalue, dec_values, null);
+    }
+
+    // decision values and prediction from the kernel values between x and
+    // every SV; the workspace may be null, then only the small per-class
+    // arrays are allocated
+    private static double svm_predict_values(svm_model model, double[] kvalue, double[] dec_values, svm_prediction_workspace ws)
     {
         int i;
         if (model.param.svm_type == svm_parameter.ONE_CLASS ||
@@ -2366,34 +4289,14 @@ public class svm
             double[] sv_coef = model.sv_coef[0];
             double sum = 0;
             for (i = 0; i < model.l; i++)
-                sum += sv_coef[i] * Kernel.k_function(x, model.SV[i], model.param);
+                sum += sv_coef[i] * kvalue[i];
             sum -= model.rho[0];
             dec_values[0] = sum;
-
-            if (model.param.svm_type == svm_parameter.ONE_CLASS)
-                return (sum > 0) ? 1 : -1;
-            else
-                return sum;
         }
         else
         {
             int nr_class = model.nr_class;
-            int l = model.l;
-
-            double[] kvalue = new double[l];
-            IntStream.range(0, l).parallel().forEach(p_i ->
-            {
-                kvalue[p_i] = Kernel.k_function(x, model.SV[p_i], model.param);
-            });
-
-            int[] start = new int[nr_class];
-            start[0] = 0;
-            for (i = 1; i < nr_class; i++)
-                start[i] = start[i - 1] + model.nSV[i - 1];
-
-            int[] vote = new int[nr_class];
-            for (i = 0; i < nr_class; i++)
-                vote[i] = 0;
+            int[] start = (ws != null) ? ws.start : svm_prediction_workspace.class_start(model);
 
             int p = 0;
             for (i = 0; i < nr_class; i++)
@@ -2414,7 +4317,40 @@ public class svm
                         sum += coef2[sj + k] * kvalue[sj + k];
                     sum -= model.rho[p];
                     dec_values[p] = sum;
+                    p++;
+                }
+        }
+        return svm_predict_label(model, dec_values, ws);
+    }
+
+    // prediction from the decision values: the sign for one-class SVM, the
+    // value for regression, and the one-vs-one vote otherwise
+    private static double svm_predict_label(svm_model model, double[] dec_values, svm_prediction_workspace ws)
+    {
+        int i;
+        if (model.param.svm_type == svm_parameter.ONE_CLASS)
+            return (dec_values[0] > 0) ? 1 : -1;
+        else if (model.param.svm_type == svm_parameter.EPSILON_SVR ||
+                model.param.svm_type == svm_parameter.NU_SVR)
+            return dec_values[0];
+        else
+        {
+            int nr_class = model.nr_class;
+
+            int[] vote;
+            if (ws != null)
+            {
+                vote = ws.vote;
+                for (i = 0; i < nr_class; i++)
+                    vote[i] = 0;
+            }
+            else
+                vote = new int[nr_class];
 
+            int p = 0;
+            for (i = 0; i < nr_class; i++)
+                for (int j = i + 1; j < nr_class; j++)
+                {
                     if (dec_values[p] > 0)
                         ++vote[i];
                     else
@@ -2450,38 +4386,277 @@ public class svm
         if ((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
                 model.probA != null && model.probB != null)
         {
-            int i;
             int nr_class = model.nr_class;
             double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
             svm_predict_values(model, x, dec_values);
+            return svm_predict_probability(model, dec_values, prob_estimates, null);
+        }
+        else
+            return svm_predict(model, x);
+    }
 
-            double min_prob = 1e-7;
-            double[][] pairwise_prob = new double[nr_class][nr_class];
+    // class probabilities from the pairwise decision values of a
+    // classification model with probability information; ws may be null
+    private static double svm_predict_probability(svm_model model, double[] dec_values, double[] prob_estimates, svm_prediction_workspace ws)
+    {
+        int i;
+        int nr_class = model.nr_class;
+        double min_prob = 1e-7;
+        double[][] pairwise_prob, Q;
+        double[] Qp;
+        if (ws != null)
+        {
+            if (ws.pairwise_prob == null)
+            {
+                ws.pairwise_prob = new double[nr_class][nr_class];
+                ws.Q = new double[nr_class][nr_class];
+                ws.Qp = new double[nr_class];
+            }
+            pairwise_prob = ws.pairwise_prob;
+            Q = ws.Q;
+            Qp = ws.Qp;
+        }
+        else
+        {
+            pairwise_prob = new double[nr_class][nr_class];
+            Q = (nr_class > 2) ? new double[nr_class][nr_class] : null;
+            Qp = (nr_class > 2) ? new double[nr_class] : null;
+        }
 
-            int k = 0;
-            for (i = 0; i < nr_class; i++)
-                for (int j = i + 1; j < nr_class; j++)
-                {
-                    pairwise_prob[i][j] = Math.min(Math.max(sigmoid_predict(dec_values[k], model.probA[k], model.probB[k]), min_prob), 1 - min_prob);
-                    pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
-                    k++;
-                }
-            if (nr_class == 2)
+        int k = 0;
+        for (i = 0; i < nr_class; i++)
+            for (int j = i + 1; j < nr_class; j++)
             {
-                prob_estimates[0] = pairwise_prob[0][1];
-                prob_estimates[1] = pairwise_prob[1][0];
+                pairwise_prob[i][j] = Math.min(Math.max(sigmoid_predict(dec_values[k], model.probA[k], model.probB[k]), min_prob), 1 - min_prob);
+                pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
+                k++;
             }
-            else
-                multiclass_probability(nr_class, pairwise_prob, prob_estimates);
+        if (nr_class == 2)
+        {
+            prob_estimates[0] = pairwise_prob[0][1];
+            prob_estimates[1] = pairwise_prob[1][0];
+        }
+        else
+            multiclass_probability(nr_class, pairwise_prob, prob_estimates, Q, Qp);
 
-            int prob_max_idx = 0;
-            for (i = 1; i < nr_class; i++)
-                if (prob_estimates[i] > prob_estimates[prob_max_idx])
-                    prob_max_idx = i;
-            return model.label[prob_max_idx];
+        int prob_max_idx = 0;
+        for (i = 1; i < nr_class; i++)
+            if (prob_estimates[i] > prob_estimates[prob_max_idx])
+                prob_max_idx = i;
+        return model.label[prob_max_idx];
+    }
+
+    //
+    // Compiled models: the same predictions from a flat copy of the SVs
+    //
+    public static svm_compiled_model svm_compile_model(svm_model model)
+    {
+        return new svm_compiled_model(model);
+    }
+
+    public static double svm_predict_values(svm_compiled_model cmodel, svm_node[] x, double[] dec_values)
+    {
+        return svm_predict_values(cmodel, x, dec_values, new svm_prediction_workspace(cmodel.model, cmodel.n), true);
+    }
+
+    public static double svm_predict(svm_compiled_model cmodel, svm_node[] x)
+    {
+        svm_prediction_workspace ws = new svm_prediction_workspace(cmodel.model, cmodel.n);
+        return svm_predict_values(cmodel, x, ws.dec_values, ws, true);
+    }
+
+    public static double svm_predict_probability(svm_compiled_model cmodel, svm_node[] x, double[] prob_estimates)
+    {
+        return svm_predict_probability(cmodel, x, prob_estimates, new svm_prediction_workspace(cmodel.model, cmodel.n), true);
+    }
+
+    //
+    // Prediction with a caller-held workspace: nothing is allocated once the
+    // workspace has been used, and the SVs of one row are scanned by the
+    // calling thread only. A workspace is created for one compiled model and
+    // must not be used by two threads at a time.
+    //
+    public static svm_prediction_workspace svm_create_workspace(svm_compiled_model cmodel)
+    {
+        return new svm_prediction_workspace(cmodel.model, cmodel.n);
+    }
+
+    public static double svm_predict_values(svm_compiled_model cmodel, svm_node[] x, double[] dec_values, svm_prediction_workspace ws)
+    {
+        svm_check_workspace(cmodel, ws);
+        return svm_predict_values(cmodel, x, dec_values, ws, false);
+    }
+
+    public static double svm_predict(svm_compiled_model cmodel, svm_node[] x, svm_prediction_workspace ws)
+    {
+        svm_check_workspace(cmodel, ws);
+        return svm_predict_values(cmodel, x, ws.dec_values, ws, false);
+    }
+
+    public static double svm_predict_probability(svm_compiled_model cmodel, svm_node[] x, double[] prob_estimates, svm_prediction_workspace ws)
+    {
+        svm_check_workspace(cmodel, ws);
+        return svm_predict_probability(cmodel, x, prob_estimates, ws, false);
+    }
+
+    private static void svm_check_workspace(svm_compiled_model cmodel, svm_prediction_workspace ws)
+    {
+        if (ws.model != cmodel.model || ws.xd.length != cmodel.n)
+            throw new IllegalArgumentException("workspace was created for another model");
+    }
+
+    // the kernel values of x go to ws.kvalue, computed in parallel over the
+    // SVs if parallel is set
+    private static double svm_predict_values(svm_compiled_model cmodel, svm_node[] x, double[] dec_values, svm_prediction_workspace ws, boolean parallel)
+    {
+        svm_model model = cmodel.model;
+        if (model.w != null)
+        {
+            svm_primal_values(model, x, dec_values);
+            return svm_predict_label(model, dec_values, ws);
         }
+
+        boolean precomputed = model.param.kernel_type == svm_parameter.PRECOMPUTED;
+        double[] xd = ws.xd;
+        if (!precomputed)
+            cmodel.scatter(x, xd);
+        double x_square = (cmodel.sv_square != null) ? Kernel.dot(x, x) : 0;
+        int l = model.l;
+        double[] kvalue = ws.kvalue;
+        if (parallel)
+            Parallel.range(model.param, 0, l, 1, (begin, end) ->
+            {
+                for (int i = begin; i < end; i++)
+                    kvalue[i] = cmodel.k_function(x, xd, x_square, i);
+            });
         else
-            return svm_predict(model, x);
+            for (int i = 0; i < l; i++)
+                kvalue[i] = cmodel.k_function(x, xd, x_square, i);
+        if (!precomputed)
+            cmodel.clear(x, xd);
+        return svm_predict_values(model, kvalue, dec_values, ws);
+    }
+
+    private static double svm_predict_probability(svm_compiled_model cmodel, svm_node[] x, double[] prob_estimates, svm_prediction_workspace ws, boolean parallel)
+    {
+        svm_model model = cmodel.model;
+        double v = svm_predict_values(cmodel, x, ws.dec_values, ws, parallel);
+        if ((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
+                model.probA != null && model.probB != null)
+            return svm_predict_probability(model, ws.dec_values, prob_estimates, ws);
+        else
+            return v;
+    }
+
+    //
+    // Batch prediction: out[r] is the prediction for xs[r], the same as from
+    // the single-row functions. Blocks of rows are scored in parallel (as
+    // set by model.param), each block against all SVs at once.
+    //
+    public static void svm_predict_batch(svm_model model, svm_node[][] xs, double[] out)
+    {
+        svm_predict_batch(svm_compile_model(model), xs, null, null, out);
+    }
+
+    public static void svm_predict_batch(svm_compiled_model cmodel, svm_node[][] xs, double[] out)
+    {
+        svm_predict_batch(cmodel, xs, null, null, out);
+    }
+
+    public static void svm_predict_values_batch(svm_model model, svm_node[][] xs, double[][] dec_values, double[] out)
+    {
+        svm_predict_batch(svm_compile_model(model), xs, dec_values, null, out);
+    }
+
+    public static void svm_predict_values_batch(svm_compiled_model cmodel, svm_node[][] xs, double[][] dec_values, double[] out)
+    {
+        svm_predict_batch(cmodel, xs, dec_values, null, out);
+    }
+
+    public static void svm_predict_probability_batch(svm_model model, svm_node[][] xs, double[][] prob_estimates, double[] out)
+    {
+        svm_predict_batch(svm_compile_model(model), xs, null, prob_estimates, out);
+    }
+
+    public static void svm_predict_probability_batch(svm_compiled_model cmodel, svm_node[][] xs, double[][] prob_estimates, double[] out)
+    {
+        svm_predict_batch(cmodel, xs, null, prob_estimates, out);
+    }
+
+    // rows per block: the scattered rows of a block (at most 256KB) stay in
+    // cache while the SVs stream past them
+    private static int svm_batch_block(svm_compiled_model cmodel)
+    {
+        return Math.max(1, Math.min(64, 32768 / Math.max(1, cmodel.n)));
+    }
+
+    // dec_values (rows filled in when not null) and prob_estimates (if not
+    // null, probability prediction as in svm_predict_probability)
+    private static void svm_predict_batch(svm_compiled_model cmodel, svm_node[][] xs, double[][] dec_values, double[][] prob_estimates, double[] out)
+    {
+        svm_model model = cmodel.model;
+        int nr_row = xs.length;
+        int block = svm_batch_block(cmodel);
+        int nr_block = (nr_row + block - 1) / block;
+        boolean probability = prob_estimates != null &&
+                (model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
+                model.probA != null && model.probB != null;
+
+        // each chunk of blocks reuses its own buffers
+        Parallel.range(model.param, 0, nr_block, (long) block * Math.max(model.l, 1), (block_begin, block_end) ->
+        {
+            int l = model.l;
+            boolean kernel = model.w == null;
+            boolean precomputed = model.param.kernel_type == svm_parameter.PRECOMPUTED;
+            double[][] xd = new double[block][];
+            double[] x_square = new double[block];
+            double[][] kvalue = new double[block][];
+            if (kernel)
+                for (int r = 0; r < block; r++)
+                {
+                    xd[r] = precomputed ? null : new double[cmodel.n];
+                    kvalue[r] = new double[l];
+                }
+            svm_prediction_workspace ws = new svm_prediction_workspace(model, 0);
+
+            for (int b = block_begin; b < block_end; b++)
+            {
+                int begin = b * block;
+                int count = Math.min(nr_row - begin, block);
+
+                if (kernel)
+                {
+                    for (int r = 0; r < count; r++)
+                    {
+                        if (!precomputed)
+                            cmodel.scatter(xs[begin + r], xd[r]);
+                        x_square[r] = (cmodel.sv_square != null) ? Kernel.dot(xs[begin + r], xs[begin + r]) : 0;
+                    }
+                    for (int i = 0; i < l; i++)
+                        for (int r = 0; r < count; r++)
+                            kvalue[r][i] = cmodel.k_function(xs[begin + r], xd[r], x_square[r], i);
+                }
+
+                for (int r = 0; r < count; r++)
+                {
+                    int row = begin + r;
+                    double[] dec_row = (dec_values != null) ? dec_values[row] : ws.dec_values;
+                    if (kernel)
+                    {
+                        out[row] = svm_predict_values(model, kvalue[r], dec_row, ws);
+                        if (!precomputed)
+                            cmodel.clear(xs[row], xd[r]);
+                    }
+                    else
+                    {
+                        svm_primal_values(model, xs[row], dec_row);
+                        out[row] = svm_predict_label(model, dec_row, ws);
+                    }
+                    if (probability)
+                        out[row] = svm_predict_probability(model, dec_row, prob_estimates[row], ws);
+                }
+            }
+        });
     }
 
     static final String svm_type_table[] = {
@@ -2493,6 +4668,13 @@ public class svm
     };
 
     public static void svm_save_model(String model_file_name, svm_model model) throws IOException
+    {
+        svm_save_model(model_file_name, model, false);
+    }
+
+    // save_w: also write model.w, if set, which only this version of
+    // libsvm reads back
+    public static void svm_save_model(String model_file_name, svm_model model, boolean save_w) throws IOException
     {
         DataOutputStream fp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(model_file_name)));
 
@@ -2556,6 +4738,18 @@ public class svm
             fp.writeBytes("\n");
         }
 
+        if (save_w && model.w != null) // one line per decision function
+        {
+            for (int p = 0; p < model.w.length; p++)
+            {
+                fp.writeBytes("w");
+                for (int k = 0; k < model.w[p].length; k++)
+                    if (model.w[p][k] != 0)
+                        fp.writeBytes(" " + k + ":" + model.w[p][k]);
+                fp.writeBytes("\n");
+            }
+        }
+
         fp.writeBytes("SV\n");
         double[][] sv_coef = model.sv_coef;
         svm_node[][] SV = model.SV;
@@ -2687,6 +4881,29 @@ public class svm
                     for (int i = 0; i < n; i++)
                         model.nSV[i] = atoi(st.nextToken());
                 }
+                else if (cmd.startsWith("w"))
+                {
+                    StringTokenizer st = new StringTokenizer(cmd.substring(1), " \t\n\r\f:");
+                    int m = st.countTokens() / 2;
+                    int[] index = new int[m];
+                    double[] value = new double[m];
+                    int len = 0;
+                    for (int j = 0; j < m; j++)
+                    {
+                        index[j] = atoi(st.nextToken());
+                        value[j] = atof(st.nextToken());
+                        len = Math.max(len, index[j] + 1);
+                    }
+                    double[] w = new double[len];
+                    for (int j = 0; j < m; j++)
+                        w[index[j]] = value[j];
+                    int n = (model.w == null) ? 0 : model.w.length;
+                    double[][] ws = new double[n + 1][];
+                    for (int i = 0; i < n; i++)
+                        ws[i] = model.w[i];
+                    ws[n] = w;
+                    model.w = ws;
+                }
                 else if (cmd.startsWith("SV"))
                 {
                     break;
@@ -2752,10 +4969,21 @@ public class svm
         }
 
         fp.close();
+        model.sv_square = svm_sv_square(model);
         return model;
     }
 
     public static String svm_check_parameter(svm_problem prob, svm_parameter param)
+    {
+        return svm_check_parameter(prob.l, prob.y, param);
+    }
+
+    public static String svm_check_parameter(svm_csr_problem prob, svm_parameter param)
+    {
+        return svm_check_parameter(prob.l, prob.y, param);
+    }
+
+    private static String svm_check_parameter(int l, double[] y, svm_parameter param)
     {
         // svm_type
 
@@ -2788,9 +5016,40 @@ public class svm
         if (param.cache_size <= 0)
             return "cache_size <= 0";
 
+        if (param.shared_cache_size < 0)
+            return "shared_cache_size < 0";
+
+        if (param.cache_off_heap != 0 &&
+                param.cache_off_heap != 1)
+            return "cache_off_heap != 0 and cache_off_heap != 1";
+
+        if (param.cache_policy != svm_parameter.LRU &&
+                param.cache_policy != svm_parameter.CLOCK)
+            return "unknown cache policy";
+
+        if (param.cache_precision != svm_parameter.SINGLE &&
+                param.cache_precision != svm_parameter.HALF &&
+                param.cache_precision != svm_parameter.BFLOAT16)
+            return "unknown cache precision";
+
         if (param.eps <= 0)
             return "eps <= 0";
 
+        if (param.max_time < 0)
+            return "max_time < 0";
+
+        if (param.max_iter < 0)
+            return "max_iter < 0";
+
+        if (param.max_kernel_eval < 0)
+            return "max_kernel_eval < 0";
+
+        if (param.checkpoint_dir != null && !new File(param.checkpoint_dir).isDirectory())
+            return "checkpoint_dir is not a directory";
+
+        if (param.checkpoint_interval < 0)
+            return "checkpoint_interval < 0";
+
         if (svm_type == svm_parameter.C_SVC ||
                 svm_type == svm_parameter.EPSILON_SVR ||
                 svm_type == svm_parameter.NU_SVR)
@@ -2819,11 +5078,24 @@ public class svm
                 svm_type == svm_parameter.ONE_CLASS)
             return "one-class SVM probability output not supported yet";
 
+        if (param.primal != 0 &&
+                param.primal != 1)
+            return "primal != 0 and primal != 1";
+
+        if (param.primal == 1 &&
+                param.kernel_type != svm_parameter.LINEAR)
+            return "primal weight vectors need the linear kernel";
+
+        if (param.nr_thread < 0)
+            return "nr_thread < 0";
+
+        if (param.min_parallel_work < 0)
+            return "min_parallel_work < 0";
+
         // check whether nu-svc is feasible
 
         if (svm_type == svm_parameter.NU_SVC)
         {
-            int l = prob.l;
             int max_nr_class = 16;
             int nr_class = 0;
             int[] label = new int[max_nr_class];
@@ -2832,7 +5104,7 @@ public class svm
             int i;
             for (i = 0; i < l; i++)
             {
-                int this_label = (int) prob.y[i];
+                int this_label = (int) y[i];
                 int j;
                 for (j = 0; j < nr_class; j++)
                     if (this_label == label[j])
@@ -2875,6 +5147,16 @@ public class svm
         return null;
     }
 
+    // fold the SVs of a linear model into primal weight vectors (model.w),
+    // used by prediction from then on; returns 1 on success, 0 if the model
+    // does not have a linear kernel
+    public static int svm_make_primal_model(svm_model model)
+    {
+        if (model.w == null)
+            model.w = svm_primal_w(model);
+        return (model.w != null) ? 1 : 0;
+    }
+
     public static int svm_check_probability_model(svm_model model)
     {
         if (((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC) &&
@@ -0,0 +1,121 @@
+package libsvm;
+
+//
+// svm_compiled_model: an svm_model laid out for prediction
+//
+// the SVs are copied into one CSR buffer (plus a row-major dense copy when
+// they are mostly dense) next to their squared norms, so that prediction
+// walks primitive arrays instead of one svm_node object per feature.
+// Built by svm.svm_compile_model and never modified afterwards, so one
+// instance can be shared by any number of threads.
+//
+public class svm_compiled_model
+{
+    final svm_model model;
+    final CsrMatrix sv;
+    final DenseMatrix dense_sv; // null if the SVs are sparse
+    final double[] sv_square; // rbf only
+    final int n; // one more than the largest SV feature index
+
+    svm_compiled_model(svm_model model)
+    {
+        this.model = model;
+
+        int l = model.l;
+        int nnz = 0;
+        for (int i = 0; i < l; i++)
+            nnz += model.SV[i].length;
+
+        svm_csr_problem csr = new svm_csr_problem();
+        csr.l = l;
+        csr.row_ptr = new int[l + 1];
+        csr.index = new int[nnz];
+        csr.value = new double[nnz];
+        int max_index = -1;
+        int p = 0;
+        for (int i = 0; i < l; i++)
+        {
+            for (svm_node node : model.SV[i])
+            {
+                if (node.index < 0)
+                    throw new IllegalArgumentException("negative feature index in SV " + i);
+                max_index = Math.max(max_index, node.index);
+                csr.index[p] = node.index;
+                csr.value[p] = node.value;
+                p++;
+            }
+            csr.row_ptr[i + 1] = p;
+        }
+        sv = new CsrMatrix(csr);
+        n = max_index + 1;
+
+        int kernel_type = model.param.kernel_type;
+        dense_sv = (kernel_type != svm_parameter.PRECOMPUTED) ? DenseMatrix.of(sv) : null;
+
+        if (kernel_type == svm_parameter.RBF)
+        {
+            if (model.sv_square != null)
+                sv_square = model.sv_square;
+            else
+            {
+                sv_square = new double[l];
+                for (int i = 0; i < l; i++)
+                    sv_square[i] = sv.dot(i, i);
+            }
+        }
+        else
+            sv_square = null;
+    }
+
+    // x as a dense vector of n entries; features no SV has are dropped
+    double[] scatter(svm_node[] x)
+    {
+        double[] v = new double[n];
+        scatter(x, v);
+        return v;
+    }
+
+    // the same into a zeroed buffer v of n entries
+    void scatter(svm_node[] x, double[] v)
+    {
+        for (svm_node node : x)
+            if (node.index >= 0 && node.index < n)
+                v[node.index] = node.value;
+    }
+
+    // zero the entries of v set by scatter(x, v)
+    void clear(svm_node[] x, double[] v)
+    {
+        for (svm_node node : x)
+            if (node.index >= 0 && node.index < n)
+                v[node.index] = 0;
+    }
+
+    // kernel value between x and SV i, given xd = scatter(x) and
+    // x_square = |x|^2 (rbf only)
+    double k_function(svm_node[] x, double[] xd, double x_square, int i)
+    {
+        svm_parameter param = model.param;
+        if (param.kernel_type == svm_parameter.PRECOMPUTED)
+            return x[(int) (sv.value_at(i, 0))].value;
+
+        double dot = (dense_sv != null) ? dense_sv.dot(i, xd) : sv.dot(i, xd);
+        switch (param.kernel_type)
+        {
+            case svm_parameter.LINEAR:
+                return dot;
+            case svm_parameter.POLY:
+                return Math.pow(param.gamma * dot + param.coef0, param.degree);
+            case svm_parameter.RBF:
+            {
+                double k = Kernel.rbf_from_norms(param.gamma, x_square, sv_square[i], dot);
+                // unscaled data: the subtraction form
+                return !Double.isNaN(k) ? k : Kernel.k_function(x, model.SV[i], param);
+            }
+            case svm_parameter.SIGMOID:
+                return Math.tanh(param.gamma * dot + param.coef0);
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package libsvm;
+
+//
+// svm_csr_problem: training data in compressed sparse row form
+//
+// row i holds the (index[k], value[k]) pairs for k in [row_ptr[i], row_ptr[i+1]),
+// with indices in ascending order as in svm_node[]
+//
+public class svm_csr_problem implements java.io.Serializable
+{
+    public int l;
+    public double[] y;
+    public int[] row_ptr; // row_ptr[l+1]
+    public int[] index;
+    public double[] value;
+}
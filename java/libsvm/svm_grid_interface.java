@@ -0,0 +1,6 @@
+package libsvm;
+
+public interface svm_grid_interface
+{
+    public void result(double log2c, double log2g, double rate);
+}
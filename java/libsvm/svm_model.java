@@ -14,10 +14,17 @@ public class svm_model implements java.io.Serializable
     public double[] probA; // pariwise probability information
     public double[] probB;
     public int[] sv_indices; // sv_indices[0,...,nSV-1] are values in [1,...,num_traning_data] to indicate SVs in the training set
+    public double[][] w; // primal weight vectors of linear models (w[k*(k-1)/2][n]), null if not computed
+    public double[] sv_square; // squared norms of SVs (sv_square[l]) for rbf prediction, set by svm_train and svm_load_model
 
     // for classification only
 
     public int[] label; // label of each class (label[k])
     public int[] nSV; // number of SVs for each class (nSV[k])
     // nSV[0] + nSV[1] + ... + nSV[k-1] = l
+
+    // prediction only, derived from SV on first use; one volatile field, so
+    // that threads predicting with a shared model see it whole or not at all
+
+    transient volatile DenseMatrix[] dense_SV; // {dense copy of SV, or null if it is sparse}
 };
@@ -16,6 +16,15 @@ public class svm_parameter implements Cloneable, java.io.Serializable
     public static final int SIGMOID = 3;
     public static final int PRECOMPUTED = 4;
 
+    /* cache_policy */
+    public static final int LRU = 0;
+    public static final int CLOCK = 1;
+
+    /* cache_precision */
+    public static final int SINGLE = 0;
+    public static final int HALF = 1;
+    public static final int BFLOAT16 = 2;
+
     public int svm_type;
     public int kernel_type;
     public int degree; // for poly
@@ -24,6 +33,10 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 
     // these are for training only
     public double cache_size; // in MB
+    public double shared_cache_size; // in MB, kernel values shared by related solvers; 0 for none
+    public int cache_off_heap; // keep the kernel cache in direct memory outside the Java heap
+    public int cache_policy; // which kernel cache column to free first
+    public int cache_precision; // how kernel cache values are stored
     public double eps; // stopping criteria
     public double C; // for C_SVC, EPSILON_SVR and NU_SVR
     public int nr_weight; // for C_SVC
@@ -33,6 +46,23 @@ public class svm_parameter implements Cloneable, java.io.Serializable
     public double p; // for EPSILON_SVR
     public int shrinking; // use the shrinking heuristics
     public int probability; // do probability estimates
+    public int primal; // for LINEAR: also keep primal weight vectors in the model
+
+    // training budget: solvers stop early with the solution so far, and the
+    // model is trained from that, once one of these is used up
+    public double max_time; // in seconds, for a whole training, cross validation or grid search call; 0 for no limit
+    public int max_iter; // iterations of each solver; 0 for the default, max(10000000, 100*l)
+    public long max_kernel_eval; // kernel values each solver computes; 0 for no limit
+
+    // checkpoints: each solver saves its state to a file named after its
+    // problem, and resumes from that file when it is run again
+    public String checkpoint_dir; // directory of the files; null for none
+    public double checkpoint_interval; // in seconds between saves; 0 for 300
+
+    // parallel loops (kernel columns in training, kernel values in prediction)
+    public int nr_thread; // at most this many threads; 0 for all processors, 1 for sequential
+    public int min_parallel_work; // loops with fewer kernel evaluations stay sequential; 0 for the default
+    public transient java.util.concurrent.ForkJoinPool pool; // null for the common pool
 
     @Override
     public Object clone()
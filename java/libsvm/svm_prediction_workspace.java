@@ -0,0 +1,44 @@
+package libsvm;
+
+//
+// svm_prediction_workspace: scratch buffers for predicting with one model
+//
+// created by svm.svm_create_workspace for a compiled model; passing it to
+// the prediction functions makes them reuse these buffers instead of
+// allocating per call. Not thread-safe: use one workspace per thread.
+//
+public class svm_prediction_workspace
+{
+    final svm_model model;
+    final double[] kvalue; // kernel values between x and each SV
+    final double[] xd; // x scattered by svm_compiled_model, all zero between calls
+    final double[] dec_values;
+    final int[] start; // index of the first SV of each class
+    final int[] vote;
+
+    // for probability estimates, allocated on first use
+    double[][] pairwise_prob;
+    double[][] Q;
+    double[] Qp;
+
+    svm_prediction_workspace(svm_model model, int n)
+    {
+        this.model = model;
+        int nr_class = model.nr_class;
+        kvalue = new double[model.l];
+        xd = new double[n];
+        dec_values = new double[nr_class * (nr_class - 1) / 2];
+        start = class_start(model);
+        vote = new int[nr_class];
+    }
+
+    static int[] class_start(svm_model model)
+    {
+        int nr_class = model.nr_class;
+        int[] start = new int[nr_class];
+        if (model.nSV != null)
+            for (int i = 1; i < nr_class; i++)
+                start[i] = start[i - 1] + model.nSV[i - 1];
+        return start;
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import libsvm.svm;
+import libsvm.svm_grid_interface;
+import libsvm.svm_parameter;
+
+class svm_grid
+{
+    private double[] log2c = range(-5, 15, 2); // null: C from svm options
+    private double[] log2g = range(3, -15, -2); // null: gamma from svm options
+    private int nr_fold = 5;
+    private String out_file_name; // null: no output file
+    private boolean out_file_set;
+    private svm_train train = new svm_train(); // parses svm options and reads the problem
+
+    private double best_c, best_g, best_rate;
+    private boolean has_best;
+
+    private static void exit_with_help()
+    {
+        System.out.print(
+            "Usage: svm_grid [grid_options] [svm_options] training_set_file\n"
+                    + "grid_options:\n"
+                    + "-log2c {begin,end,step | \"null\"} : set the range of c (default -5,15,2)\n"
+                    + "	begin,end,step -- c_range = 2^{begin,...,begin+k*step,...,end}\n"
+                    + "	\"null\" -- do not grid with c\n"
+                    + "-log2g {begin,end,step | \"null\"} : set the range of g (default 3,-15,-2)\n"
+                    + "	begin,end,step -- g_range = 2^{begin,...,begin+k*step,...,end}\n"
+                    + "	\"null\" -- do not grid with g\n"
+                    + "-v n : n-fold cross validation (default 5)\n"
+                    + "-out {pathname | \"null\"} : set output file path and name (default training_set_file.out)\n"
+                    + "svm_options : additional options for svm_train; -j limits the threads\n"
+                    + "	shared by all grid points, and -M (default: the -m value) the kernel\n"
+                    + "	cache shared by the folds and C values of each gamma\n");
+        System.exit(1);
+    }
+
+    // begin, begin+step, ... up to end inclusive, as in grid.py
+    private static double[] range(double begin, double end, double step)
+    {
+        List<Double> seq = new ArrayList<>();
+        while (!(step > 0 && begin > end) && !(step < 0 && begin < end))
+        {
+            seq.add(begin);
+            begin += step;
+            if (step == 0) break;
+        }
+        double[] r = new double[seq.size()];
+        for (int i = 0; i < r.length; i++)
+            r[i] = seq.get(i);
+        return r;
+    }
+
+    private static double[] parse_range(String s)
+    {
+        if (s.equals("null"))
+            return null;
+        String[] t = s.split(",");
+        if (t.length != 3)
+            exit_with_help();
+        return range(Double.parseDouble(t[0]), Double.parseDouble(t[1]), Double.parseDouble(t[2]));
+    }
+
+    private void parse_command_line(String argv[])
+    {
+        List<String> svm_argv = new ArrayList<>();
+        int i;
+        for (i = 0; i < argv.length; i++)
+        {
+            if (argv[i].equals("-log2c") || argv[i].equals("-log2g") ||
+                    argv[i].equals("-v") || argv[i].equals("-out"))
+            {
+                if (i + 1 >= argv.length)
+                    exit_with_help();
+                String value = argv[++i];
+                switch (argv[i - 1])
+                {
+                    case "-log2c":
+                        log2c = parse_range(value);
+                        break;
+                    case "-log2g":
+                        log2g = parse_range(value);
+                        break;
+                    case "-v":
+                        nr_fold = Integer.parseInt(value);
+                        if (nr_fold < 2)
+                        {
+                            System.err.print("n-fold cross validation: n must >= 2\n");
+                            exit_with_help();
+                        }
+                        break;
+                    default:
+                        out_file_name = value.equals("null") ? null : value;
+                        out_file_set = true;
+                }
+            }
+            else if (argv[i].equals("-c") || argv[i].equals("-g"))
+            {
+                System.err.print("Use -log2c and -log2g.\n");
+                exit_with_help();
+            }
+            else
+                svm_argv.add(argv[i]);
+        }
+        if (svm_argv.isEmpty() || svm_argv.get(svm_argv.size() - 1).startsWith("-"))
+            exit_with_help();
+
+        train.parse_command_line(svm_argv.toArray(new String[0]));
+        if (!svm_argv.contains("-M"))
+            train.param.shared_cache_size = train.param.cache_size;
+        if (!out_file_set)
+        {
+            int p = train.input_file_name.lastIndexOf('/');
+            ++p;
+            out_file_name = train.input_file_name.substring(p) + ".out";
+        }
+    }
+
+    private void run(String argv[]) throws IOException
+    {
+        parse_command_line(argv);
+        train.read_problem();
+        String error_msg = svm.svm_check_parameter(train.prob, train.param);
+        if (error_msg != null)
+        {
+            System.err.print("ERROR: " + error_msg + "\n");
+            System.exit(1);
+        }
+        // the output of the individual trainings is not shown
+        svm.svm_set_print_string_function(s -> {});
+
+        boolean regression = train.param.svm_type == svm_parameter.EPSILON_SVR ||
+                train.param.svm_type == svm_parameter.NU_SVR;
+        PrintWriter out = (out_file_name != null) ? new PrintWriter(new FileWriter(out_file_name)) : null;
+
+        // results are printed as they come in, with the best point so far
+        svm_grid_interface result_func = (c, g, rate) ->
+        {
+            boolean better = regression ? rate < best_rate : rate > best_rate;
+            if (!has_best || better || (rate == best_rate && equal(g, best_g) && c < best_c))
+            {
+                best_c = c;
+                best_g = g;
+                best_rate = rate;
+                has_best = true;
+            }
+            StringBuilder line = new StringBuilder();
+            StringBuilder best = new StringBuilder(" (best ");
+            if (log2c != null)
+            {
+                line.append(c).append(' ');
+                best.append("c=").append(Math.pow(2, best_c)).append(", ");
+            }
+            if (log2g != null)
+            {
+                line.append(g).append(' ');
+                best.append("g=").append(Math.pow(2, best_g)).append(", ");
+            }
+            System.out.print(line.toString() + rate + best + "rate=" + best_rate + ")\n");
+            if (out != null)
+            {
+                out.print((log2c != null ? "log2c=" + c + " " : "") + (log2g != null ? "log2g=" + g + " " : "") + "rate=" + rate + "\n");
+                out.flush();
+            }
+        };
+        svm.svm_grid_search(train.prob, train.param, nr_fold, log2c, log2g, result_func);
+
+        StringBuilder best = new StringBuilder();
+        if (log2c != null)
+            best.append(Math.pow(2, best_c)).append(' ');
+        if (log2g != null)
+            best.append(Math.pow(2, best_g)).append(' ');
+        System.out.print(best.toString() + best_rate + "\n");
+        if (out != null)
+        {
+            out.print("best_c=" + (log2c != null ? Math.pow(2, best_c) : train.param.C)
+                    + " best_g=" + (log2g != null ? Math.pow(2, best_g) : train.param.gamma)
+                    + " best_rate=" + best_rate + "\n");
+            out.close();
+        }
+    }
+
+    private static boolean equal(double a, double b)
+    {
+        return a == b || (Double.isNaN(a) && Double.isNaN(b));
+    }
+
+    public static void main(String argv[]) throws IOException
+    {
+        svm_grid g = new svm_grid();
+        g.run(argv);
+    }
+}
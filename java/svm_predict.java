@@ -8,9 +8,11 @@ import java.io.IOException;
 import java.util.StringTokenizer;
 
 import libsvm.svm;
+import libsvm.svm_compiled_model;
 import libsvm.svm_model;
 import libsvm.svm_node;
 import libsvm.svm_parameter;
+import libsvm.svm_prediction_workspace;
 import libsvm.svm_print_interface;
 
 class svm_predict
@@ -59,6 +61,8 @@ class svm_predict
         int svm_type = svm.svm_get_svm_type(model);
         int nr_class = svm.svm_get_nr_class(model);
         double[] prob_estimates = null;
+        svm_compiled_model cmodel = svm.svm_compile_model(model);
+        svm_prediction_workspace ws = svm.svm_create_workspace(cmodel);
 
         if (predict_probability == 1)
         {
@@ -98,7 +102,7 @@ class svm_predict
             double v;
             if (predict_probability == 1 && (svm_type == svm_parameter.C_SVC || svm_type == svm_parameter.NU_SVC))
             {
-                v = svm.svm_predict_probability(model, x, prob_estimates);
+                v = svm.svm_predict_probability(cmodel, x, prob_estimates, ws);
                 output.writeBytes(v + " ");
                 for (int j = 0; j < nr_class; j++)
                     output.writeBytes(prob_estimates[j] + " ");
@@ -106,7 +110,7 @@ class svm_predict
             }
             else
             {
-                v = svm.svm_predict(model, x);
+                v = svm.svm_predict(cmodel, x, ws);
                 output.writeBytes(v + "\n");
             }
 
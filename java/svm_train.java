@@ -13,10 +13,10 @@ import libsvm.svm_problem;
 
 class svm_train
 {
-    private svm_parameter param; // set by parse_command_line
-    private svm_problem prob; // set by read_problem
+    svm_parameter param; // set by parse_command_line
+    svm_problem prob; // set by read_problem
     private svm_model model;
-    private String input_file_name; // set by parse_command_line
+    String input_file_name; // set by parse_command_line
     private String model_file_name; // set by parse_command_line
     private String error_msg;
     private int cross_validation;
@@ -54,11 +54,27 @@ class svm_train
                     + "-n nu : set the parameter nu of nu-SVC, one-class SVM, and nu-SVR (default 0.5)\n"
                     + "-p epsilon : set the epsilon in loss function of epsilon-SVR (default 0.1)\n"
                     + "-m cachesize : set cache memory size in MB (default 100)\n"
+                    + "-M sharedcachesize : set size in MB of the kernel cache shared across folds and class pairs (default 0)\n"
+                    + "-O off_heap : whether to keep the kernel cache outside the Java heap, 0 or 1 (default 0)\n"
+                    + "-E cache_policy : set the kernel cache column to free first (default 0)\n"
+                    + "	0 -- LRU: least recently used\n"
+                    + "	1 -- CLOCK: clock with request counts, keeps often used columns\n"
+                    + "-F cache_precision : set how kernel cache values are stored (default 0)\n"
+                    + "	0 -- 32-bit float\n"
+                    + "	1 -- 16-bit half precision (IEEE 754 binary16)\n"
+                    + "	2 -- 16-bit bfloat16\n"
                     + "-e epsilon : set tolerance of termination criterion (default 0.001)\n"
+                    + "-T max_time : stop training after this many seconds, with the solution so far (default 0: no limit)\n"
+                    + "-I max_iter : stop each solver after this many iterations (default 0: max(10000000, 100*l))\n"
+                    + "-K max_kernel_eval : stop each solver after computing this many kernel values (default 0: no limit)\n"
+                    + "-R checkpoint_dir : save solver states in this directory and resume from them (default none)\n"
+                    + "-S checkpoint_interval : set seconds between saves of a solver state (default 300)\n"
                     + "-h shrinking : whether to use the shrinking heuristics, 0 or 1 (default 1)\n"
                     + "-b probability_estimates : whether to train a SVC or SVR model for probability estimates, 0 or 1 (default 0)\n"
+                    + "-P primal : for linear kernel, whether to store primal weight vectors in the model, 0 or 1 (default 0)\n"
                     + "-wi weight : set the parameter C of class i to weight*C, for C-SVC (default 1)\n"
                     + "-v n : n-fold cross validation mode\n"
+                    + "-j threads : at most this many threads for parallel loops, 1 for none (default 0: all processors)\n"
                     + "-q : quiet mode (no outputs)\n");
         System.exit(1);
     }
@@ -121,7 +137,7 @@ class svm_train
         else
         {
             model = svm.svm_train(prob, param);
-            svm.svm_save_model(model_file_name, model);
+            svm.svm_save_model(model_file_name, model, param.primal == 1);
         }
     }
 
@@ -147,7 +163,7 @@ class svm_train
         return Integer.parseInt(s);
     }
 
-    private void parse_command_line(String argv[])
+    void parse_command_line(String argv[])
     {
         int i;
         svm_print_interface print_func = null; // default printing to stdout
@@ -161,11 +177,23 @@ class svm_train
         param.coef0 = 0;
         param.nu = 0.5;
         param.cache_size = 100;
+        param.shared_cache_size = 0;
+        param.cache_off_heap = 0;
+        param.cache_policy = svm_parameter.LRU;
+        param.cache_precision = svm_parameter.SINGLE;
         param.C = 1;
         param.eps = 1e-3;
+        param.max_time = 0;
+        param.max_iter = 0;
+        param.max_kernel_eval = 0;
+        param.checkpoint_dir = null;
+        param.checkpoint_interval = 0;
         param.p = 0.1;
         param.shrinking = 1;
         param.probability = 0;
+        param.primal = 0;
+        param.nr_thread = 0;
+        param.min_parallel_work = 0;
         param.nr_weight = 0;
         param.weight_label = new int[0];
         param.weight = new double[0];
@@ -200,12 +228,39 @@ class svm_train
                 case 'm':
                     param.cache_size = atof(argv[i]);
                     break;
+                case 'M':
+                    param.shared_cache_size = atof(argv[i]);
+                    break;
+                case 'O':
+                    param.cache_off_heap = atoi(argv[i]);
+                    break;
+                case 'E':
+                    param.cache_policy = atoi(argv[i]);
+                    break;
+                case 'F':
+                    param.cache_precision = atoi(argv[i]);
+                    break;
                 case 'c':
                     param.C = atof(argv[i]);
                     break;
                 case 'e':
                     param.eps = atof(argv[i]);
                     break;
+                case 'T':
+                    param.max_time = atof(argv[i]);
+                    break;
+                case 'I':
+                    param.max_iter = atoi(argv[i]);
+                    break;
+                case 'K':
+                    param.max_kernel_eval = (long) atof(argv[i]);
+                    break;
+                case 'R':
+                    param.checkpoint_dir = argv[i];
+                    break;
+                case 'S':
+                    param.checkpoint_interval = atof(argv[i]);
+                    break;
                 case 'p':
                     param.p = atof(argv[i]);
                     break;
@@ -215,6 +270,12 @@ class svm_train
                 case 'b':
                     param.probability = atoi(argv[i]);
                     break;
+                case 'P':
+                    param.primal = atoi(argv[i]);
+                    break;
+                case 'j':
+                    param.nr_thread = atoi(argv[i]);
+                    break;
                 case 'q':
                     print_func = svm_print_null;
                     i--;
@@ -272,7 +333,7 @@ class svm_train
 
     // read in a problem (in svmlight format)
 
-    private void read_problem() throws IOException
+    void read_problem() throws IOException
     {
         BufferedReader fp = new BufferedReader(new FileReader(input_file_name));
         Vector<Double> vy = new Vector<>();